@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.andreyrage.leftdb;
+
+import android.test.AndroidTestCase;
+
+import com.github.andreyrage.leftdb.codec.CompactBlobCodec;
+
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class BlobCodecTest extends AndroidTestCase {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private CompactBlobCodec codec;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		codec = new CompactBlobCodec();
+	}
+
+	public void testCollections() throws Exception {
+		ArrayList<String> arrayList = new ArrayList<>(Arrays.asList("a", null, "b"));
+		LinkedList<Integer> linkedList = new LinkedList<>(Arrays.asList(3, 1, 2));
+		HashSet<Long> hashSet = new HashSet<>(Arrays.asList(1L, 2L));
+		LinkedHashSet<String> linkedHashSet = new LinkedHashSet<>(Arrays.asList("z", "a", "m"));
+
+		assertRoundTrip(arrayList);
+		assertRoundTrip(linkedList);
+		assertRoundTrip(hashSet);
+		assertEquals(new ArrayList<>(linkedHashSet), new ArrayList<>((LinkedHashSet<?>) roundTrip(linkedHashSet)));
+		// not restored by a no-arg constructor, so written with Java serialization
+		assertEquals(arrayList, roundTrip(Collections.unmodifiableList(arrayList)));
+		assertRoundTrip(Arrays.asList("x", "y"));
+		assertRoundTrip(Collections.singletonList("x"));
+	}
+
+	public void testMaps() throws Exception {
+		HashMap<String, Integer> hashMap = new HashMap<>();
+		hashMap.put("one", 1);
+		hashMap.put("two", 2);
+		LinkedHashMap<Integer, String> linkedHashMap = new LinkedHashMap<>();
+		linkedHashMap.put(2, "two");
+		linkedHashMap.put(1, "one");
+		TreeMap<String, Integer> treeMap = new TreeMap<>(Collections.<String>reverseOrder());
+		treeMap.putAll(hashMap);
+		EnumMap<Color, String> enumMap = new EnumMap<>(Color.class);
+		enumMap.put(Color.GREEN, "green");
+
+		assertRoundTrip(hashMap);
+		assertEquals(new ArrayList<>(linkedHashMap.keySet()),
+				new ArrayList<>(((Map<?, ?>) roundTrip(linkedHashMap)).keySet()));
+		TreeMap<?, ?> decodedTreeMap = (TreeMap<?, ?>) roundTrip(treeMap);
+		assertEquals(treeMap, decodedTreeMap);
+		assertEquals("two", decodedTreeMap.firstKey());
+		assertEquals(enumMap, roundTrip(enumMap));
+		assertEquals(EnumMap.class, roundTrip(enumMap).getClass());
+
+		Holder holder = new Holder();
+		holder.colors = enumMap;
+		assertEquals(enumMap, ((Holder) roundTrip(holder)).colors);
+	}
+
+	public void testEnumsAndArrays() throws Exception {
+		assertEquals(Color.RED, roundTrip(Color.RED));
+		assertEquals(Color.BLUE, roundTrip(Color.BLUE));
+
+		int[] ints = {1, -2, Integer.MAX_VALUE};
+		assertTrue(Arrays.equals(ints, (int[]) roundTrip(ints)));
+		byte[] bytes = {1, 2, 3};
+		assertTrue(Arrays.equals(bytes, (byte[]) roundTrip(bytes)));
+		Color[] colors = {Color.GREEN, null, Color.RED};
+		assertTrue(Arrays.equals(colors, (Color[]) roundTrip(colors)));
+		Object[][] nested = {{"a", 1}, {2.5, null}};
+		assertTrue(Arrays.deepEquals(nested, (Object[][]) roundTrip(nested)));
+	}
+
+	public void testSharedReferences() throws Exception {
+		Holder holder = new Holder();
+		holder.items = new ArrayList<>(Arrays.asList("a", "b"));
+		holder.sameItems = holder.items;
+		holder.child = new Holder();
+		holder.child.items = holder.items;
+
+		Holder decoded = (Holder) roundTrip(holder);
+		assertEquals(holder.items, decoded.items);
+		assertSame(decoded.items, decoded.sameItems);
+		assertSame(decoded.items, decoded.child.items);
+
+		// objects that reference each other are written with Java serialization
+		holder.child.child = holder;
+		decoded = (Holder) roundTrip(holder);
+		assertSame(decoded, decoded.child.child);
+	}
+
+	public void testClassEvolution() throws Exception {
+		EvolvedV1 old = new EvolvedV1();
+		old.name = "name";
+		old.count = 5;
+		old.removed = "removed";
+		byte[] bytes = replaceClassName(codec.encode(old), EvolvedV1.class, EvolvedV2.class);
+
+		EvolvedV2 evolved = (EvolvedV2) codec.decode(bytes);
+		assertEquals("name", evolved.name);
+		assertEquals(5L, evolved.count);
+		assertNull(evolved.added);
+
+		bytes = replaceClassName(codec.encode(old), EvolvedV1.class, EvolvedV3.class);
+		try {
+			codec.decode(bytes);
+			fail();
+		} catch (InvalidClassException expected) {
+			// count has changed from int to String
+		}
+	}
+
+	private void assertRoundTrip(Object value) throws Exception {
+		Object decoded = roundTrip(value);
+		assertEquals(value, decoded);
+		assertEquals(value.getClass(), decoded.getClass());
+	}
+
+	private Object roundTrip(Object value) throws Exception {
+		byte[] bytes = codec.encode(value);
+		assertTrue(CompactBlobCodec.isCompact(bytes));
+		return codec.decode(bytes);
+	}
+
+	/**
+	 * Simulates a class changed between encoding and decoding,
+	 * names of the classes have the same length
+	 * */
+	private byte[] replaceClassName(byte[] bytes, Class<?> from, Class<?> to) {
+		byte[] fromName = from.getName().getBytes(UTF_8);
+		byte[] toName = to.getName().getBytes(UTF_8);
+		assertEquals(fromName.length, toName.length);
+		for (int i = 0; i + fromName.length <= bytes.length; i++) {
+			if (Arrays.equals(fromName, Arrays.copyOfRange(bytes, i, i + fromName.length))) {
+				System.arraycopy(toName, 0, bytes, i, toName.length);
+				return bytes;
+			}
+		}
+		fail("Class name not found");
+		return bytes;
+	}
+
+	public enum Color {
+		RED, GREEN, BLUE {
+			@Override
+			public String toString() {
+				return "blue";
+			}
+		}
+	}
+
+	public static class Holder implements Serializable {
+		List<String> items;
+		List<String> sameItems;
+		Holder child;
+		Map<Color, String> colors;
+	}
+
+	public static class EvolvedV1 implements Serializable {
+		String name;
+		int count;
+		String removed;
+	}
+
+	public static class EvolvedV2 implements Serializable {
+		String name;
+		long count;
+		String added;
+	}
+
+	public static class EvolvedV3 implements Serializable {
+		String name;
+		String count;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.support.annotation.NonNull;
+import android.test.AndroidTestCase;
+
+import com.github.andreyrage.leftdb.entities.SerializableObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ChangeBusTest extends AndroidTestCase {
+
+	private DBUtils dbUtils;
+	private final List<Set<String>> tables = new ArrayList<>();
+	private final List<Map<String, Set<Long>>> rowIds = new ArrayList<>();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbUtils = DBUtils.newInstance(getContext(), "changes.sqlite", 1);
+		dbUtils.getChangeBus().addListener(new ChangeBus.Listener() {
+			@Override
+			public void onChange(@NonNull Set<String> changedTables, @NonNull Map<String, Set<Long>> changedRowIds) {
+				tables.add(changedTables);
+				rowIds.add(changedRowIds);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		dbUtils.getDbHandler().deleteDataBase();
+	}
+
+	public void testAddPublishesRowId() throws Exception {
+		dbUtils.add(new SerializableObject(10, "name", null));
+
+		assertEquals(1, tables.size());
+		assertTrue(tables.get(0).contains("Object"));
+		assertTrue(rowIds.get(0).get("Object").contains(10L));
+	}
+
+	public void testTransactionPublishesOnce() throws Exception {
+		dbUtils.add(Arrays.asList(
+				new SerializableObject(1, "first", null),
+				new SerializableObject(2, "second", null),
+				new SerializableObject(3, "third", null)));
+
+		assertEquals(1, tables.size());
+		assertEquals(3, rowIds.get(0).get("Object").size());
+	}
+
+	public void testRollbackDropsChanges() throws Exception {
+		dbUtils.beginTransaction();
+		try {
+			dbUtils.add(new SerializableObject(1, "first", null));
+		} finally {
+			dbUtils.endTransaction();
+		}
+
+		assertEquals(0, dbUtils.count(SerializableObject.class));
+		assertTrue(tables.isEmpty());
+	}
+
+	public void testDeleteWherePublishesTable() throws Exception {
+		dbUtils.add(new SerializableObject(1, "first", null));
+		tables.clear();
+		rowIds.clear();
+
+		dbUtils.deleteWhere(SerializableObject.class, "id = 1");
+
+		assertEquals(1, tables.size());
+		assertTrue(tables.get(0).contains("Object"));
+		assertNull(rowIds.get(0).get("Object"));
+	}
+}
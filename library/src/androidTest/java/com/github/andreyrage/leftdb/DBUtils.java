@@ -17,8 +17,12 @@
 package com.github.andreyrage.leftdb;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.github.andreyrage.leftdb.config.DbConfig;
 import com.github.andreyrage.leftdb.entities.AllFields;
 import com.github.andreyrage.leftdb.entities.AnnotationId;
 import com.github.andreyrage.leftdb.entities.AutoIncId;
@@ -37,17 +41,47 @@ import com.github.andreyrage.leftdb.entities.StringKeyChild;
 import com.github.andreyrage.leftdb.utils.SerializeUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DBUtils extends LeftDBUtils {
 
+	/** number of executed typed queries */
+	final AtomicInteger typedQueries = new AtomicInteger();
+	/** milliseconds every typed query waits before it runs */
+	volatile long typedQueryDelay;
+
 	public static DBUtils newInstance(Context context, String name, int version) {
 		DBUtils dbUtils = new DBUtils();
 		dbUtils.setDBContext(context, name, version);
 		return dbUtils;
 	}
 
+	public static DBUtils newInstance(Context context, String name, int version, DbConfig config) {
+		DBUtils dbUtils = new DBUtils();
+		dbUtils.setDBContext(context, name, version, config);
+		return dbUtils;
+	}
+
+	public static DBUtils newInstanceInMemory(Context context, String diskName) {
+		DBUtils dbUtils = new DBUtils();
+		dbUtils.setDBContextInMemory(context, 1, diskName);
+		return dbUtils;
+	}
+
+	public static DBUtils newInstanceAsync(Context context, String name, int version,
+										   OnOpenListener listener) {
+		DBUtils dbUtils = new DBUtils();
+		dbUtils.setDBContextAsync(context, name, version, listener);
+		return dbUtils;
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		super.onCreate(db);
@@ -101,4 +135,35 @@ public class DBUtils extends LeftDBUtils {
 		}
 		return null;
 	}
+
+	@Override
+	protected void serializeObject(@NonNull Object object, @NonNull OutputStream stream) throws IOException {
+		ObjectOutputStream objectOutputStream = new ObjectOutputStream(stream);
+		objectOutputStream.writeObject(object);
+		objectOutputStream.flush();
+	}
+
+	@Override
+	protected <T> T deserializeObject(@NonNull InputStream stream, Class<T> tClass, Type genericType) throws IOException {
+		try {
+			return tClass.cast(new ObjectInputStream(stream).readObject());
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@NonNull
+	@Override
+	Cursor typedQuery(@NonNull String sql, @NonNull String table, @NonNull List<Object> args,
+					  @Nullable CancellationToken token) {
+		typedQueries.incrementAndGet();
+		if (typedQueryDelay > 0) {
+			try {
+				Thread.sleep(typedQueryDelay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return super.typedQuery(sql, table, args, token);
+	}
 }
@@ -22,6 +22,7 @@ import android.database.sqlite.SQLiteDatabase;
 import com.github.andreyrage.leftdb.entities.AllFields;
 import com.github.andreyrage.leftdb.entities.ChildMany;
 import com.github.andreyrage.leftdb.entities.ChildOne;
+import com.github.andreyrage.leftdb.entities.SerializableObject;
 import com.github.andreyrage.leftdb.utils.SerializeUtils;
 
 import java.io.IOException;
@@ -53,6 +54,10 @@ public class DBUtilsMigration extends LeftDBUtils {
 			createTable(db, ChildMany.class);
 			oldVersion = 3;
 		}
+		if (oldVersion == 3 && newVersion > 3) {
+			migrateTable(db, SerializableObject.class);
+			oldVersion = 4;
+		}
 	}
 
 	@Override
@@ -26,15 +26,44 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 import java.util.Arrays;
+import java.util.Map;
 
 public class DBUtilsUpdate extends LeftDBUtils {
 
+	private boolean upgradeFromSameAsset;
+	private boolean upgradeDelta;
+	boolean failUpgrade;
+	Map<String, Integer> upgradedRows;
+	boolean assetAttached;
+
 	public static DBUtilsUpdate newInstance(Context context, String name, int version) {
 		DBUtilsUpdate dbUtils = new DBUtilsUpdate();
 		dbUtils.setDBContext(context, name, version);
 		return dbUtils;
 	}
 
+	public static DBUtilsUpdate newInstanceDelta(Context context, String name, int version) {
+		DBUtilsUpdate dbUtils = new DBUtilsUpdate();
+		dbUtils.upgradeDelta = true;
+		dbUtils.setDBContext(context, name, version);
+		return dbUtils;
+	}
+
+	public static DBUtilsUpdate newInstanceSameAsset(Context context, String name, int version) {
+		DBUtilsUpdate dbUtils = sameAsset();
+		dbUtils.setDBContext(context, name, version);
+		return dbUtils;
+	}
+
+	/**
+	 * Not opened instance that upgrades rows from the same asset
+	 * */
+	public static DBUtilsUpdate sameAsset() {
+		DBUtilsUpdate dbUtils = new DBUtilsUpdate();
+		dbUtils.upgradeFromSameAsset = true;
+		return dbUtils;
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		super.onCreate(db);
@@ -44,11 +73,25 @@ public class DBUtilsUpdate extends LeftDBUtils {
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		super.onDowngrade(db, oldVersion, newVersion);
+		assetAttached = getDbHandler().isAssetAttached();
+		if (upgradeDelta) {
+			upgradedRows = upgradeRowsDelta(db, oldVersion);
+			return;
+		}
+		if (upgradeFromSameAsset) {
+			upgradedRows = upgradeRowsPerTable(db);
+			if (failUpgrade) {
+				throw new IllegalStateException("Upgrade failed");
+			}
+			return;
+		}
 		LeftDBHandler dbHandler = getDbHandler();
 		try {
 			Field field = dbHandler.getClass().getDeclaredField("name");
 			field.setAccessible(true);
 			field.set(dbHandler, "update2.sqlite");
+			// attached database is of the old name, so rows are copied one by one
+			db.execSQL("CREATE TABLE Typed (id INTEGER PRIMARY KEY, value)");
 			upgradeRows(db);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -17,8 +17,16 @@
 package com.github.andreyrage.leftdb;
 
 import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.annotation.NonNull;
 import android.test.AndroidTestCase;
 
+import com.github.andreyrage.leftdb.codec.BlobCodec;
+import com.github.andreyrage.leftdb.codec.CompactBlobCodec;
+import com.github.andreyrage.leftdb.codec.JavaBlobCodec;
 import com.github.andreyrage.leftdb.entities.AllFields;
 import com.github.andreyrage.leftdb.entities.AnnotationId;
 import com.github.andreyrage.leftdb.entities.AutoIncId;
@@ -26,9 +34,13 @@ import com.github.andreyrage.leftdb.entities.ChildMany;
 import com.github.andreyrage.leftdb.entities.ChildManyCustomName;
 import com.github.andreyrage.leftdb.entities.ChildOne;
 import com.github.andreyrage.leftdb.entities.ChildOneCustomName;
+import com.github.andreyrage.leftdb.entities.CompositeKey;
+import com.github.andreyrage.leftdb.entities.CompressedEntity;
+import com.github.andreyrage.leftdb.entities.DaoBlobEntity;
 import com.github.andreyrage.leftdb.entities.ExtendEntity;
 import com.github.andreyrage.leftdb.entities.FloatKey;
 import com.github.andreyrage.leftdb.entities.FloatKeyChild;
+import com.github.andreyrage.leftdb.entities.LazyEntity;
 import com.github.andreyrage.leftdb.entities.NoDbEntity;
 import com.github.andreyrage.leftdb.entities.NotAnnotationId;
 import com.github.andreyrage.leftdb.entities.ParentMany;
@@ -40,16 +52,25 @@ import com.github.andreyrage.leftdb.entities.ParentOne;
 import com.github.andreyrage.leftdb.entities.ParentOneCustomName;
 import com.github.andreyrage.leftdb.entities.ParentOneWithoutChild;
 import com.github.andreyrage.leftdb.entities.PrimaryKeyId;
+import com.github.andreyrage.leftdb.entities.PrimitiveLazyEntity;
+import com.github.andreyrage.leftdb.entities.SearchableNote;
+import com.github.andreyrage.leftdb.entities.SearchableProduct;
 import com.github.andreyrage.leftdb.entities.SerializableObject;
 import com.github.andreyrage.leftdb.entities.StringKey;
 import com.github.andreyrage.leftdb.entities.StringKeyChild;
+import com.github.andreyrage.leftdb.entities.WithoutRowIdEntity;
 import com.github.andreyrage.leftdb.entities.WrongIncObject;
 import com.github.andreyrage.leftdb.exceptions.IncorrectAutoIncTypeException;
+import com.github.andreyrage.leftdb.exceptions.QueryCanceledException;
 import com.github.andreyrage.leftdb.queries.CountQuery;
 import com.github.andreyrage.leftdb.queries.DeleteQuery;
+import com.github.andreyrage.leftdb.queries.SearchQuery;
 import com.github.andreyrage.leftdb.queries.SelectQuery;
 import com.github.andreyrage.leftdb.queries.UpdateQuery;
+import com.github.andreyrage.leftdb.utils.CompressUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -57,8 +78,11 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
 
 public class DbAssetsTest extends AndroidTestCase {
 
@@ -1060,4 +1084,638 @@ public class DbAssetsTest extends AndroidTestCase {
 		List<AutoIncId> dbList = dbUtils.getAll(AutoIncId.class);
 		assertEquals(0, dbList.size());
 	}
+
+	public void testCanceledSelect() throws Exception {
+		dbUtils.add(new SerializableObject(1, "first", null));
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+
+		boolean isCanceled = false;
+		try {
+			dbUtils.select(SelectQuery.builder().entity(SerializableObject.class).build(), token);
+		} catch (QueryCanceledException e) {
+			isCanceled = true;
+		}
+		assertTrue(isCanceled);
+
+		List<SerializableObject> dbList = dbUtils.select(
+				SelectQuery.builder().entity(SerializableObject.class).build(),
+				new CancellationToken());
+		assertEquals(1, dbList.size());
+	}
+
+	public void testQueryDeduplication() throws Exception {
+		dbUtils.setQueryDeduplication(true);
+		dbUtils.add(new SerializableObject(1, "first", null));
+
+		SelectQuery query = SelectQuery.builder().entity(SerializableObject.class).build();
+		List<SerializableObject> dbList = dbUtils.select(query);
+		assertEquals(1, dbList.size());
+		assertEquals(1, dbUtils.count(CountQuery.builder().entity(SerializableObject.class).build()));
+
+		dbList.get(0).setName("changed");
+		dbList.clear();
+
+		dbUtils.add(new SerializableObject(2, "second", null));
+		assertEquals(2, dbUtils.select(query).size());
+	}
+
+	public void testQueryDeduplicationMapsEntitiesPerCaller() throws Exception {
+		dbUtils.setQueryDeduplication(true);
+		for (int i = 1; i <= 100; i++) {
+			dbUtils.add(new SerializableObject(i, "name" + i, null));
+		}
+		final SelectQuery query = SelectQuery.builder().entity(SerializableObject.class).build();
+		final int threads = 4;
+		final CyclicBarrier barrier = new CyclicBarrier(threads);
+		final List<List<SerializableObject>> results = Collections.synchronizedList(
+				new ArrayList<List<SerializableObject>>());
+		// the first query is slowed down, so the other threads join it
+		dbUtils.typedQueries.set(0);
+		dbUtils.typedQueryDelay = 300;
+		List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						barrier.await();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					List<SerializableObject> list = dbUtils.select(query);
+					results.add(list);
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} finally {
+			dbUtils.typedQueryDelay = 0;
+		}
+
+		assertEquals(threads, results.size());
+		assertTrue(dbUtils.typedQueries.get() >= 1);
+		assertTrue(dbUtils.typedQueries.get() < threads);
+		Set<SerializableObject> instances = Collections.newSetFromMap(
+				new IdentityHashMap<SerializableObject, Boolean>());
+		for (List<SerializableObject> list : results) {
+			assertEquals(100, list.size());
+			instances.addAll(list);
+		}
+		assertEquals(threads * 100, instances.size());
+		results.get(0).get(0).setName("changed");
+		assertEquals("name1", results.get(1).get(0).getName());
+		dbUtils.setQueryDeduplication(false);
+	}
+
+	public void testQueryPlanAnalyzer() throws Exception {
+		final List<QueryPlanAnalyzer.QueryPlan> plans = new ArrayList<>();
+		dbUtils.setQueryPlanAnalyzer(new QueryPlanAnalyzer(new QueryPlanAnalyzer.Listener() {
+			@Override
+			public void onQueryPlan(@NonNull QueryPlanAnalyzer.QueryPlan plan) {
+				plans.add(plan);
+			}
+		}));
+
+		dbUtils.select(SelectQuery.builder().entity(SerializableObject.class)
+				.where("id = ?").whereArgs(1).build());
+		assertTrue(plans.isEmpty());
+
+		SelectQuery query = SelectQuery.builder().entity(SerializableObject.class)
+				.where("name = ?").whereArgs("first").build();
+		dbUtils.select(query);
+		dbUtils.select(query);
+		assertEquals(1, plans.size());
+		assertSame(query, plans.get(0).query());
+		assertTrue(plans.get(0).hasFullScan());
+		assertEquals("Object", plans.get(0).scannedTables().get(0));
+
+		dbUtils.setQueryPlanAnalyzer(null);
+	}
+
+	public void testCompositeKey() throws Exception {
+		if (!dbUtils.isTableExists(CompositeKey.class)) {
+			dbUtils.createTable(dbUtils.db, CompositeKey.class);
+		}
+		dbUtils.add(Arrays.asList(
+				new CompositeKey("a", 1, "first"),
+				new CompositeKey("a", 2, "second"),
+				new CompositeKey("b", 1, "third")));
+		dbUtils.add(new CompositeKey("a", 1, "replaced"));
+
+		assertEquals(3, dbUtils.count(CompositeKey.class));
+		assertEquals(1, dbUtils.count(CompositeKey.class, "name = 'replaced'"));
+
+		assertTrue(dbUtils.delete(new CompositeKey("a", 1, null)));
+		assertEquals(2, dbUtils.count(CompositeKey.class));
+		assertEquals(1, dbUtils.count(CompositeKey.class, "category = 'a'"));
+	}
+
+	public void testWithoutRowId() throws Exception {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+			return;
+		}
+		dbUtils.createTable(dbUtils.db, WithoutRowIdEntity.class);
+		Cursor cursor = dbUtils.db.rawQuery("SELECT sql FROM sqlite_master WHERE name = 'Setting'", null);
+		assertTrue(cursor.moveToFirst());
+		assertTrue(cursor.getString(0).endsWith("WITHOUT ROWID"));
+		cursor.close();
+
+		final List<Map<String, Set<Long>>> rowIds = new ArrayList<>();
+		dbUtils.getChangeBus().addListener(new ChangeBus.Listener() {
+			@Override
+			public void onChange(@NonNull Set<String> tables, @NonNull Map<String, Set<Long>> changedRowIds) {
+				if (tables.contains("Setting")) {
+					rowIds.add(changedRowIds);
+				}
+			}
+		});
+		assertEquals(1, dbUtils.add(new WithoutRowIdEntity("theme", "dark")));
+		assertEquals(2, dbUtils.add(Arrays.asList(
+				new WithoutRowIdEntity("theme", "light"),
+				new WithoutRowIdEntity("language", "en"))));
+		assertEquals(2, rowIds.size());
+		assertNull(rowIds.get(0).get("Setting"));
+
+		assertEquals(2, dbUtils.count(WithoutRowIdEntity.class));
+		List<WithoutRowIdEntity> settings = dbUtils.getAll(WithoutRowIdEntity.class);
+		assertEquals(new WithoutRowIdEntity("language", "en"), settings.get(0));
+		assertEquals(new WithoutRowIdEntity("theme", "light"), settings.get(1));
+
+		assertEquals(1, dbUtils.update(new WithoutRowIdEntity("theme", "blue"), "value"));
+		assertEquals(1, dbUtils.count(WithoutRowIdEntity.class, "value = 'blue'"));
+		assertTrue(dbUtils.delete(new WithoutRowIdEntity("language", null)));
+		assertEquals(1, dbUtils.count(WithoutRowIdEntity.class));
+		dbUtils.add(new WithoutRowIdEntity("language", "en"));
+		assertEquals(2, dbUtils.delete(Arrays.asList(
+				new WithoutRowIdEntity("theme", null),
+				new WithoutRowIdEntity("language", null))));
+		assertEquals(0, dbUtils.count(WithoutRowIdEntity.class));
+		try {
+			dbUtils.db.rawQuery("SELECT rowid FROM Setting", null).close();
+			fail();
+		} catch (SQLException expected) {
+		}
+	}
+
+	public void testFullTextSearch() throws Exception {
+		if (!dbUtils.isTableExists(SearchableProduct.class)) {
+			dbUtils.createTable(dbUtils.db, SearchableProduct.class);
+		}
+		dbUtils.add(Arrays.asList(
+				new SearchableProduct(1, "Red car", "Toy"),
+				new SearchableProduct(2, "Blue bike", "Fits a red car driver"),
+				new SearchableProduct(3, "Green lamp", "Desk lamp")));
+
+		List<SearchableProduct> results = dbUtils.search(SearchQuery.builder()
+				.entity(SearchableProduct.class).text("red ca").build());
+		assertEquals(2, results.size());
+		assertEquals(1, results.get(0).getId());
+		assertEquals(2, results.get(1).getId());
+
+		dbUtils.add(new SearchableProduct(1, "Yellow car", "Toy"));
+		dbUtils.delete(new SearchableProduct(3, null, null));
+		assertEquals(1, dbUtils.search(SearchQuery.builder()
+				.entity(SearchableProduct.class).match("red").build()).size());
+		assertTrue(dbUtils.search(SearchQuery.builder()
+				.entity(SearchableProduct.class).match("lamp").build()).isEmpty());
+		assertEquals(1, dbUtils.search(SearchQuery.builder()
+				.entity(SearchableProduct.class).text("car").limit(1).build()).size());
+	}
+
+	public void testFullTextSearchRankPerTerm() throws Exception {
+		if (!dbUtils.isTableExists(SearchableProduct.class)) {
+			dbUtils.createTable(dbUtils.db, SearchableProduct.class);
+		}
+		dbUtils.add(Arrays.asList(
+				new SearchableProduct(1, "Blue thing", "Red toy"),
+				new SearchableProduct(2, "Red bus", "Toy")));
+
+		// no column has both terms of the second row, its terms are weighted per column
+		List<SearchableProduct> results = dbUtils.search(SearchQuery.builder()
+				.entity(SearchableProduct.class).match("red toy").build());
+		assertEquals(2, results.size());
+		assertEquals(2, results.get(0).getId());
+		assertEquals(1, results.get(1).getId());
+		assertTrue(dbUtils.search(SearchQuery.builder()
+				.entity(SearchableProduct.class).match("missing").build()).isEmpty());
+	}
+
+	public void testFullTextSearchReplace() throws Exception {
+		dbUtils.createTable(dbUtils.db, SearchableNote.class);
+		dbUtils.add(Arrays.asList(
+				new SearchableNote("a", "apple pie"),
+				new SearchableNote("b", "apple tart"),
+				new SearchableNote("c", "apple juice")));
+		for (int i = 0; i < 3; i++) {
+			dbUtils.add(new SearchableNote("a", "apple pie " + i));
+			dbUtils.add(Collections.singletonList(new SearchableNote("b", "apple tart " + i)));
+		}
+
+		Cursor cursor = dbUtils.db.rawQuery("SELECT COUNT(*) FROM SearchableNote_fts", null);
+		assertTrue(cursor.moveToFirst());
+		assertEquals(3, cursor.getInt(0));
+		cursor.close();
+
+		// full-text row without a table row is skipped before paging
+		dbUtils.db.execSQL("INSERT INTO SearchableNote_fts (rowid, text) VALUES (1000, 'apple apple apple')");
+		List<SearchableNote> first = dbUtils.search(SearchQuery.builder()
+				.entity(SearchableNote.class).match("apple").limit(2).build());
+		List<SearchableNote> second = dbUtils.search(SearchQuery.builder()
+				.entity(SearchableNote.class).match("apple").limit(2).offset(2).build());
+		assertEquals(2, first.size());
+		assertEquals(1, second.size());
+		Set<String> keys = new HashSet<>();
+		for (SearchableNote note : first) {
+			keys.add(note.getKey());
+		}
+		keys.add(second.get(0).getKey());
+		assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), keys);
+		List<SearchableNote> pie = dbUtils.search(SearchQuery.builder()
+				.entity(SearchableNote.class).match("pie").build());
+		assertEquals(1, pie.size());
+		assertEquals("apple pie 2", pie.get(0).getText());
+	}
+
+	public void testSnapshot() throws Exception {
+		dbUtils.add(Arrays.asList(
+				new SerializableObject(1, "first", null),
+				new SerializableObject(2, "second", null)));
+		File file = new File(getContext().getCacheDir(), "snapshot.sqlite");
+		final List<Integer> progress = new ArrayList<>();
+
+		dbUtils.snapshotTo(file, new LeftDBUtils.OnSnapshotProgress() {
+			@Override
+			public void onProgress(int done, int total) {
+				progress.add(done);
+				assertTrue(done <= total);
+			}
+		});
+
+		assertTrue(file.exists());
+		assertFalse(progress.isEmpty());
+		SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+		Cursor cursor = snapshot.rawQuery("SELECT COUNT(*) FROM Object", null);
+		assertTrue(cursor.moveToFirst());
+		assertEquals(2, cursor.getInt(0));
+		cursor.close();
+		snapshot.close();
+		file.delete();
+	}
+
+	public void testSnapshotCopyKeepsRowIds() throws Exception {
+		dbUtils.createTable(dbUtils.db, SearchableNote.class);
+		dbUtils.add(Arrays.asList(
+				new SearchableNote("a", "apple pie"),
+				new SearchableNote("b", "banana split"),
+				new SearchableNote("c", "cherry tart")));
+		// rowids have a gap, so renumbered rows would not match their full-text rows
+		dbUtils.db.execSQL("DELETE FROM SearchableNote WHERE key = 'a'");
+		File file = new File(getContext().getCacheDir(), "snapshot.sqlite");
+
+		DbSnapshot.write(dbUtils.db, file, null, false);
+
+		SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+		Cursor cursor = snapshot.rawQuery("SELECT rowid, key FROM SearchableNote ORDER BY rowid", null);
+		assertEquals(2, cursor.getCount());
+		assertTrue(cursor.moveToFirst());
+		assertEquals(2, cursor.getLong(0));
+		assertEquals("b", cursor.getString(1));
+		cursor.close();
+		cursor = snapshot.rawQuery("SELECT key FROM SearchableNote, SearchableNote_fts "
+				+ "WHERE SearchableNote_fts MATCH 'cherry' AND SearchableNote.rowid = SearchableNote_fts.rowid", null);
+		assertTrue(cursor.moveToFirst());
+		assertEquals("c", cursor.getString(0));
+		assertEquals(1, cursor.getCount());
+		cursor.close();
+		snapshot.close();
+		file.delete();
+	}
+
+	public void testSnapshotCopyOrderAndShadowTables() throws Exception {
+		// child is created before its parent, like after the parent is rebuilt
+		dbUtils.db.execSQL("CREATE TABLE SnapshotChild (id INTEGER PRIMARY KEY, "
+				+ "parentId INTEGER REFERENCES SnapshotParent(id))");
+		dbUtils.db.execSQL("CREATE TABLE SnapshotParent (id INTEGER PRIMARY KEY)");
+		dbUtils.db.execSQL("INSERT INTO SnapshotParent (id) VALUES (1)");
+		dbUtils.db.execSQL("INSERT INTO SnapshotChild (id, parentId) VALUES (1, 1)");
+		dbUtils.db.execSQL("CREATE VIRTUAL TABLE Note_fts USING fts3(text)");
+		dbUtils.db.execSQL("INSERT INTO Note_fts (text) VALUES ('note')");
+		// not a shadow table of Note_fts
+		dbUtils.db.execSQL("CREATE TABLE Note_fts_archive (text TEXT)");
+		dbUtils.db.execSQL("INSERT INTO Note_fts_archive (text) VALUES ('archived')");
+		File file = new File(getContext().getCacheDir(), "snapshot.sqlite");
+
+		DbSnapshot.write(dbUtils.db, file, null, false);
+
+		SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+		for (String table : new String[] {"SnapshotParent", "SnapshotChild", "Note_fts", "Note_fts_archive"}) {
+			Cursor cursor = snapshot.rawQuery("SELECT COUNT(*) FROM " + table, null);
+			assertTrue(cursor.moveToFirst());
+			assertEquals(table, 1, cursor.getInt(0));
+			cursor.close();
+		}
+		snapshot.close();
+		file.delete();
+	}
+
+	public void testBlobCodec() throws Exception {
+		SerializableObject object = new SerializableObject(1, "parent", new SerializableObject(2, "child", null));
+		AllFields allFields = new AllFields();
+		allFields.setId(1);
+		allFields.setSerialize(object);
+		dbUtils.add(allFields);
+
+		Cursor cursor = dbUtils.db.rawQuery("SELECT serialize FROM AllFields", null);
+		assertTrue(cursor.moveToFirst());
+		byte[] bytes = cursor.getBlob(0);
+		cursor.close();
+		byte[] javaBytes = new JavaBlobCodec().encode(object);
+		assertTrue(CompactBlobCodec.isCompact(bytes));
+		assertTrue(bytes.length < javaBytes.length);
+		assertEquals(object, dbUtils.getAll(AllFields.class).get(0).getSerialize());
+
+		// compact blobs stay readable after another codec is set
+		dbUtils.setBlobCodec(new PrefixBlobCodec(new byte[] {1}));
+		assertEquals(object, dbUtils.getAll(AllFields.class).get(0).getSerialize());
+
+		ContentValues values = new ContentValues();
+		values.put("serialize", javaBytes);
+		dbUtils.db.update("AllFields", values, null, null);
+
+		assertEquals(object, dbUtils.getAll(AllFields.class).get(0).getSerialize());
+	}
+
+	public void testBlobCodecOutputLikeCompressed() throws Exception {
+		SerializableObject object = new SerializableObject(1, "name", null);
+		AllFields allFields = new AllFields();
+		allFields.setId(1);
+		allFields.setSerialize(object);
+
+		// gzip header is not a marker of compressed values
+		dbUtils.setBlobCodec(new PrefixBlobCodec(new byte[] {0x1F, (byte) 0x8B}));
+		dbUtils.add(allFields);
+		assertEquals(object, dbUtils.getAll(AllFields.class).get(0).getSerialize());
+
+		// value starting with the marker is stored compressed, so it is read back as is
+		dbUtils.setBlobCodec(new PrefixBlobCodec(CompressUtils.MARKER));
+		dbUtils.add(allFields);
+		Cursor cursor = dbUtils.db.rawQuery("SELECT serialize FROM AllFields", null);
+		assertTrue(cursor.moveToFirst());
+		assertTrue(CompressUtils.isCompressed(cursor.getBlob(0)));
+		cursor.close();
+		assertEquals(object, dbUtils.getAll(AllFields.class).get(0).getSerialize());
+
+		byte[] large = new byte[100000];
+		Arrays.fill(large, (byte) 1);
+		assertTrue(Arrays.equals(large, CompressUtils.decompress(CompressUtils.compress(large))));
+	}
+
+	private static class PrefixBlobCodec implements BlobCodec {
+		private final byte[] prefix;
+		private final JavaBlobCodec javaCodec = new JavaBlobCodec();
+
+		private PrefixBlobCodec(byte[] prefix) {
+			this.prefix = prefix;
+		}
+
+		@NonNull
+		@Override
+		public byte[] encode(@NonNull Object object) throws IOException {
+			byte[] bytes = javaCodec.encode(object);
+			byte[] result = Arrays.copyOf(prefix, prefix.length + bytes.length);
+			System.arraycopy(bytes, 0, result, prefix.length, bytes.length);
+			return result;
+		}
+
+		@Override
+		public Object decode(@NonNull byte[] bytes) throws IOException {
+			return javaCodec.decode(Arrays.copyOfRange(bytes, prefix.length, bytes.length));
+		}
+	}
+
+	public void testCompressed() throws Exception {
+		dbUtils.createTable(dbUtils.db, CompressedEntity.class);
+		ArrayList<String> list = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			list.add("repeated value");
+		}
+		CompressedEntity large = new CompressedEntity(1, new SerializableObject(1, "name", null), list);
+		CompressedEntity small = new CompressedEntity(2, null, new ArrayList<>(Collections.singletonList("value")));
+		dbUtils.add(Arrays.asList(large, small));
+
+		Cursor cursor = dbUtils.db.rawQuery("SELECT dao, list FROM CompressedEntity ORDER BY id", null);
+		assertTrue(cursor.moveToFirst());
+		assertEquals(Cursor.FIELD_TYPE_BLOB, cursor.getType(0));
+		assertTrue(CompressUtils.isCompressed(cursor.getBlob(0)));
+		assertTrue(CompressUtils.isCompressed(cursor.getBlob(1)));
+		assertTrue(cursor.moveToNext());
+		assertFalse(CompressUtils.isCompressed(cursor.getBlob(1)));
+		cursor.close();
+
+		List<CompressedEntity> dbList = dbUtils.getAll(CompressedEntity.class);
+		assertEquals(Arrays.asList(large, small), dbList);
+	}
+
+	public void testDaoBlob() throws Exception {
+		dbUtils.createTable(dbUtils.db, DaoBlobEntity.class);
+		SerializableObject object = new SerializableObject(1, "name", null);
+		ArrayList<SerializableObject> list = new ArrayList<>(Arrays.asList(object, object));
+		DaoBlobEntity entity = new DaoBlobEntity(1, object, list);
+		dbUtils.add(Arrays.asList(entity, new DaoBlobEntity(2, null, null)));
+
+		Cursor cursor = dbUtils.db.rawQuery("SELECT dao, list FROM DaoBlobEntity WHERE id = 1", null);
+		assertTrue(cursor.moveToFirst());
+		assertEquals(Cursor.FIELD_TYPE_BLOB, cursor.getType(0));
+		assertTrue(CompressUtils.isCompressed(cursor.getBlob(1)));
+		cursor.close();
+
+		assertEquals(Arrays.asList(entity, new DaoBlobEntity(2, null, null)), dbUtils.getAll(DaoBlobEntity.class));
+	}
+
+	public void testLazyColumn() throws Exception {
+		dbUtils.createTable(dbUtils.db, LazyEntity.class);
+		dbUtils.add(Arrays.asList(new LazyEntity(1, "first", "first body"), new LazyEntity(2, "second", "second body")));
+
+		LazyEntity entity = dbUtils.getAll(LazyEntity.class).get(0);
+		assertEquals("first", entity.getTitle());
+		assertNull(entity.getBody());
+		assertFalse(dbUtils.isLoaded(entity, "body"));
+
+		entity.setTitle("changed");
+		dbUtils.add(entity);
+		dbUtils.loadLazy(entity);
+		assertTrue(dbUtils.isLoaded(entity, "body"));
+		assertEquals("first body", entity.getBody());
+
+		List<LazyEntity> selected = dbUtils.select(SelectQuery.builder()
+				.entity(LazyEntity.class)
+				.where("id = ?")
+				.whereArgs(2)
+				.build());
+		assertNull(selected.get(0).getBody());
+		selected.get(0).setBody("new body");
+		dbUtils.add(selected.get(0));
+		assertEquals("new body", dbUtils.loadLazy(dbUtils.getAllWhere("id = 2", LazyEntity.class).get(0), "body").getBody());
+		assertEquals("changed", dbUtils.getAllWhere("id = 1", LazyEntity.class).get(0).getTitle());
+	}
+
+
+	public void testPrimitiveLazyColumnRejected() throws Exception {
+		dbUtils.createTable(dbUtils.db, PrimitiveLazyEntity.class);
+		dbUtils.add(new PrimitiveLazyEntity(1, 10));
+		try {
+			// unloaded int would be read as 0 and written back over the stored value
+			dbUtils.getAll(PrimitiveLazyEntity.class);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		Cursor cursor = dbUtils.db.rawQuery("SELECT views FROM PrimitiveLazyEntity", null);
+		assertTrue(cursor.moveToFirst());
+		assertEquals(10, cursor.getInt(0));
+		cursor.close();
+	}
+	public void testSelectMappedColumns() throws Exception {
+		dbUtils.db.execSQL("CREATE TABLE DaoBlobEntity (id INTEGER PRIMARY KEY, legacy TEXT)");
+		dbUtils.db.execSQL("INSERT INTO DaoBlobEntity (id, legacy) VALUES (1, 'legacy')");
+
+		List<DaoBlobEntity> dbList = dbUtils.getAll(DaoBlobEntity.class);
+		assertEquals(1, dbList.size());
+		assertEquals(new DaoBlobEntity(1, null, null), dbList.get(0));
+
+		dbUtils.migrateTable(dbUtils.db, DaoBlobEntity.class);
+		SerializableObject object = new SerializableObject(1, "name", null);
+		DaoBlobEntity entity = new DaoBlobEntity(2, object, new ArrayList<>(Collections.singletonList(object)));
+		dbUtils.add(entity);
+
+		assertEquals(entity, dbUtils.getAllWhere("id = 2", DaoBlobEntity.class).get(0));
+		assertEquals(1, dbUtils.getAllLimited(DaoBlobEntity.class, 1).size());
+	}
+
+	public void testTypedWhereArgs() throws Exception {
+		dbUtils.add(Arrays.asList(
+				new SerializableObject(1, "a", null),
+				new SerializableObject(2, "abcde", null),
+				new SerializableObject(3, null, null)));
+
+		// expressions have no affinity, so text argument would never be less than a number
+		assertEquals(1, dbUtils.count(CountQuery.builder()
+				.entity(SerializableObject.class)
+				.where("length(otherName) > ?")
+				.whereArgs(3)
+				.build()));
+		List<SerializableObject> selected = dbUtils.select(SelectQuery.builder()
+				.entity(SerializableObject.class)
+				.where("id * 2 >= ?")
+				.whereArgs(4.0)
+				.orderBy("id")
+				.build());
+		assertEquals(2, selected.size());
+		assertEquals(2, selected.get(0).getId());
+
+		ContentValues values = new ContentValues();
+		values.put("otherName", "updated");
+		assertEquals(1, dbUtils.update(UpdateQuery.builder()
+				.entity(SerializableObject.class)
+				.where("otherName IS ?")
+				.whereArgs((Object) null)
+				.build(), values));
+		assertEquals(1, dbUtils.delete(DeleteQuery.builder()
+				.entity(SerializableObject.class)
+				.where("id + 0 = ?")
+				.whereArgs(1L)
+				.build()));
+		assertEquals(2, dbUtils.count(SerializableObject.class));
+		assertEquals(1, dbUtils.count(SerializableObject.class, "otherName = 'updated'", null));
+	}
+
+	public void testPreparedSelect() throws Exception {
+		dbUtils.add(Arrays.asList(
+				new SerializableObject(1, "first", null),
+				new SerializableObject(2, "second", null),
+				new SerializableObject(3, "third", null)));
+
+		PreparedSelect<SerializableObject> byId = SelectQuery.builder()
+				.entity(SerializableObject.class)
+				.where("id = ?")
+				.whereArgs(1)
+				.build()
+				.prepare(dbUtils);
+
+		assertEquals("first", byId.execute().get(0).getName());
+		for (long id = 1; id <= 3; id++) {
+			assertEquals(id, byId.executeFirst(id).getId());
+		}
+		assertNull(byId.executeFirst(4));
+		assertEquals(byId.sql(), dbUtils.prepare(byId.query()).sql());
+
+		PreparedSelect<SerializableObject> last = SelectQuery.builder()
+				.entity(SerializableObject.class)
+				.orderBy("id DESC")
+				.build()
+				.prepare(dbUtils);
+		assertEquals(3, last.executeFirst().getId());
+		assertEquals(3, last.execute().size());
+
+		PreparedSelect<SerializableObject> page = SelectQuery.builder()
+				.entity(SerializableObject.class)
+				.orderBy("id DESC")
+				.limit(1, 2)
+				.build()
+				.prepare(dbUtils);
+		assertEquals(2, page.executeFirst().getId());
+		assertEquals(2, page.execute().size());
+	}
+
+	public void testUpdateEntity() throws Exception {
+		dbUtils.createTable(dbUtils.db, LazyEntity.class);
+		dbUtils.add(Arrays.asList(
+				new LazyEntity(1, "first", "first body"),
+				new LazyEntity(2, "second", "second body")));
+
+		LazyEntity entity = new LazyEntity(1, "changed", "changed body");
+		assertEquals(1, dbUtils.update(entity, "title"));
+		entity = dbUtils.loadLazy(dbUtils.getAllWhere("id = 1", LazyEntity.class).get(0));
+		assertEquals("changed", entity.getTitle());
+		assertEquals("first body", entity.getBody());
+
+		dbUtils.setDirtyTracking(true);
+		try {
+			entity = dbUtils.getAllWhere("id = 2", LazyEntity.class).get(0);
+			assertEquals(0, dbUtils.update(entity));
+			dbUtils.db.execSQL("UPDATE LazyEntity SET body = 'external' WHERE id = 2");
+			entity.setTitle("dirty");
+			assertEquals(1, dbUtils.update(entity));
+			entity = dbUtils.loadLazy(dbUtils.getAllWhere("id = 2", LazyEntity.class).get(0));
+			assertEquals("dirty", entity.getTitle());
+			assertEquals("external", entity.getBody());
+		} finally {
+			dbUtils.setDirtyTracking(false);
+		}
+
+		List<LazyEntity> entities = dbUtils.getAll(LazyEntity.class);
+		for (LazyEntity item : entities) {
+			item.setTitle("batch");
+		}
+		assertEquals(2, dbUtils.update(entities, "title"));
+		assertEquals(2, dbUtils.count(LazyEntity.class, "title = 'batch'", null));
+
+		Set<LazyEntity> entitySet = new HashSet<>(dbUtils.getAll(LazyEntity.class));
+		for (LazyEntity item : entitySet) {
+			item.setTitle("set");
+		}
+		assertEquals(2, dbUtils.update(entitySet, "title"));
+		assertEquals(2, dbUtils.count(LazyEntity.class, "title = 'set'", null));
+
+		try {
+			dbUtils.update(entity, "missing");
+			fail();
+		} catch (IllegalArgumentException ignored) {
+		}
+	}
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import com.github.andreyrage.leftdb.entities.SerializableObject;
+
+public class DbAsyncOpenTest extends DbAssetsTest {
+
+    @Override
+    protected void setUp() throws Exception {
+        //super.setUp();
+        dbUtils = DBUtils.newInstanceAsync(getContext(), "test.sqlite", 1, null);
+        // waits for the database
+        dbUtils.count(SerializableObject.class);
+        assertNotNull(dbUtils.db);
+    }
+
+    public void testOpened() throws Exception {
+        assertTrue(dbUtils.isOpened());
+        dbUtils.add(new SerializableObject(1, "name", null));
+        assertEquals(1, dbUtils.count(SerializableObject.class));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.github.andreyrage.leftdb.config.DbConfig;
+import com.github.andreyrage.leftdb.entities.SerializableObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DbConfigTest extends AndroidTestCase {
+
+	private DBUtils dbUtils;
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		dbUtils.getDbHandler().deleteDataBase();
+	}
+
+	public void testConfigApplied() throws Exception {
+		dbUtils = DBUtils.newInstance(getContext(), "config.sqlite", 1, DbConfig.builder()
+				.pageSize(8192)
+				.synchronous(DbConfig.SYNCHRONOUS_OFF)
+				.tempStore(DbConfig.TEMP_STORE_MEMORY)
+				.build());
+
+		assertEquals(8192, pragma("page_size"));
+		assertEquals(0, pragma("synchronous"));
+		assertEquals(2, pragma("temp_store"));
+
+		dbUtils.add(new SerializableObject(1, "name", null));
+		assertEquals(1, dbUtils.count(SerializableObject.class));
+	}
+
+	public void testPresets() throws Exception {
+		dbUtils = DBUtils.newInstance(getContext(), "config.sqlite", 1, DbConfig.readHeavy());
+
+		assertEquals(1, pragma("synchronous"));
+		dbUtils.add(new SerializableObject(1, "name", null));
+		assertEquals(1, dbUtils.count(SerializableObject.class));
+	}
+
+	public void testWrongPageSize() throws Exception {
+		dbUtils = DBUtils.newInstance(getContext(), "config.sqlite", 1);
+		try {
+			DbConfig.builder().pageSize(1000).build();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testMaintenance() throws Exception {
+		dbUtils = DBUtils.newInstance(getContext(), "config.sqlite", 1, DbConfig.builder()
+				.autoVacuum(DbConfig.AUTO_VACUUM_INCREMENTAL)
+				.build());
+		assertEquals(2, pragma("auto_vacuum"));
+
+		List<SerializableObject> objects = new ArrayList<>();
+		char[] name = new char[500];
+		Arrays.fill(name, 'a');
+		for (int i = 1; i <= 500; i++) {
+			objects.add(new SerializableObject(i, new String(name), null));
+		}
+		dbUtils.add(objects);
+		dbUtils.deleteAll(SerializableObject.class);
+		assertTrue(pragma("freelist_count") > 0);
+
+		MaintenanceScheduler.Result result =
+				new MaintenanceScheduler(dbUtils, null, 0, 10000).runMaintenance();
+
+		assertTrue(result.reclaimedBytes() > 0);
+		assertTrue(result.analyzed());
+		assertEquals(0, pragma("freelist_count"));
+	}
+
+	public void testMaintenanceOutOfBudget() throws Exception {
+		dbUtils = DBUtils.newInstance(getContext(), "config.sqlite", 1, DbConfig.builder()
+				.autoVacuum(DbConfig.AUTO_VACUUM_INCREMENTAL)
+				.build());
+		dbUtils.add(new SerializableObject(1, "name", null));
+
+		MaintenanceScheduler.Result result =
+				new MaintenanceScheduler(dbUtils, null, 0, 0).runMaintenance();
+
+		assertFalse(result.analyzed());
+	}
+
+	public void testAutoVacuumAppliedToAssetCopy() throws Exception {
+		dbUtils = DBUtils.newInstance(getContext(), "test.sqlite", 1, DbConfig.builder()
+				.autoVacuum(DbConfig.AUTO_VACUUM_INCREMENTAL)
+				.build());
+
+		assertEquals(2, pragma("auto_vacuum"));
+		dbUtils.add(new SerializableObject(1, "name", null));
+		assertEquals(1, dbUtils.count(SerializableObject.class));
+	}
+
+	private int pragma(String name) {
+		Cursor cursor = dbUtils.db.rawQuery("PRAGMA " + name, null);
+		assertTrue(cursor.moveToFirst());
+		int value = cursor.getInt(0);
+		cursor.close();
+		return value;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.test.AndroidTestCase;
+
+import com.github.andreyrage.leftdb.entities.SerializableObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DbCopyTest extends AndroidTestCase {
+
+	private File databases;
+	private DBUtils dbUtils;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		databases = new File(getContext().getFilesDir() + "/databases/");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		if (dbUtils != null) {
+			dbUtils.getDbHandler().deleteDataBase();
+		}
+	}
+
+	public void testCopyReportsProgress() throws Exception {
+		deleteDatabase("update.sqlite");
+		final List<long[]> progress = new ArrayList<>();
+		dbUtils = new DBUtils() {
+			@Override
+			public void onCopyProgress(long copied, long total) {
+				progress.add(new long[] {copied, total});
+			}
+		};
+		dbUtils.setDBContext(getContext(), "update.sqlite", 1);
+
+		byte[] asset = readAsset("update.sqlite");
+		assertTrue(Arrays.equals(asset, readFile(new File(databases, "update.sqlite"))));
+		assertFalse(new File(databases, "update.sqlite.tmp").exists());
+		assertFalse(progress.isEmpty());
+		long previous = 0;
+		for (long[] step : progress) {
+			assertTrue(step[0] >= previous);
+			previous = step[0];
+		}
+		long[] last = progress.get(progress.size() - 1);
+		assertEquals(asset.length, last[0]);
+		assertTrue(last[1] == asset.length || last[1] == -1);
+		assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+	}
+
+	public void testFailedCopyRemovesTempFile() throws Exception {
+		deleteDatabase("update.sqlite");
+		DBUtils failing = new DBUtils() {
+			@Override
+			public void onCopyProgress(long copied, long total) {
+				throw new IllegalStateException("Canceled");
+			}
+		};
+		try {
+			failing.setDBContext(getContext(), "update.sqlite", 1);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		assertFalse(new File(databases, "update.sqlite").exists());
+		assertFalse(new File(databases, "update.sqlite.tmp").exists());
+	}
+
+	public void testCopyGzipAsset() throws Exception {
+		deleteDatabase("gzipped.sqlite");
+		final List<Long> totals = new ArrayList<>();
+		dbUtils = new DBUtils() {
+			@Override
+			public void onCopyProgress(long copied, long total) {
+				totals.add(total);
+			}
+		};
+		dbUtils.setDBContext(getContext(), "gzipped.sqlite", 1);
+
+		assertTrue(Arrays.equals(readAsset("update.sqlite"), readFile(new File(databases, "gzipped.sqlite"))));
+		assertFalse(totals.isEmpty());
+		// size is read from the gzip trailer if the asset is not compressed in apk
+		long total = totals.get(0);
+		assertTrue(total == readAsset("update.sqlite").length || total == -1);
+		assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+	}
+
+	public void testCopyZipAssetSkipsDirectories() throws Exception {
+		deleteDatabase("zipped.sqlite");
+		dbUtils = DBUtils.newInstance(getContext(), "zipped.sqlite", 1);
+
+		assertTrue(Arrays.equals(readAsset("update.sqlite"), readFile(new File(databases, "zipped.sqlite"))));
+		assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+	}
+
+	public void testCopyEmptyZipAsset() throws Exception {
+		deleteDatabase("empty.sqlite");
+		try {
+			DBUtils.newInstance(getContext(), "empty.sqlite", 1);
+			fail();
+		} catch (RuntimeException expected) {
+		}
+		assertFalse(new File(databases, "empty.sqlite").exists());
+		assertFalse(new File(databases, "empty.sqlite.tmp").exists());
+	}
+
+	private void deleteDatabase(String name) {
+		new File(databases, name).delete();
+		new File(databases, name + ".tmp").delete();
+	}
+
+	private byte[] readAsset(String name) throws IOException {
+		return read(getContext().getAssets().open(name));
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		return read(new FileInputStream(file));
+	}
+
+	private static byte[] read(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+}
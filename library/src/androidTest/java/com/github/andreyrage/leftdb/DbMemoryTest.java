@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import com.github.andreyrage.leftdb.config.RelationshipConfig;
+import com.github.andreyrage.leftdb.entities.IndexedEntity;
+import com.github.andreyrage.leftdb.entities.SerializableObject;
+
+public class DbMemoryTest extends DbAssetsTest {
+
+    @Override
+    protected void setUp() throws Exception {
+        //super.setUp();
+        dbUtils = DBUtils.newInstanceInMemory(getContext(), null);
+        assertNotNull(dbUtils.db);
+    }
+
+    public void testPersistRestore() throws Exception {
+        dbUtils.getDbHandler().deleteDataBase();
+        dbUtils = DBUtils.newInstanceInMemory(getContext(), "memory.sqlite");
+        dbUtils.add(new SerializableObject(1, "first", null));
+        dbUtils.persist(SerializableObject.class);
+        dbUtils.getDbHandler().close();
+
+        dbUtils = DBUtils.newInstanceInMemory(getContext(), "memory.sqlite");
+        assertEquals(0, dbUtils.count(SerializableObject.class));
+        dbUtils.restore(SerializableObject.class);
+        assertEquals(1, dbUtils.count(SerializableObject.class));
+        assertEquals("first", dbUtils.getAll(SerializableObject.class).get(0).getName());
+    }
+
+    public void testRestoreKeepsChildRows() throws Exception {
+        dbUtils.getDbHandler().deleteDataBase();
+        dbUtils = DBUtils.newInstanceInMemory(getContext(), "memory.sqlite");
+        dbUtils.createTable(dbUtils.db, IndexedEntity.class, RelationshipConfig.builder()
+                .parentTable("Object")
+                .parentKey("id")
+                .foreignKey("parentId")
+                .onDelete(RelationshipConfig.CASCADE)
+                .build());
+        dbUtils.add(new SerializableObject(1, "first", null));
+        dbUtils.persist(SerializableObject.class);
+        dbUtils.add(new IndexedEntity(1, "child", "c1", "category", 1, 1L));
+
+        // replaced parent rows don't cascade to the child table that is not restored
+        dbUtils.restore(SerializableObject.class);
+        assertEquals(1, dbUtils.count(SerializableObject.class));
+        assertEquals(1, dbUtils.count(IndexedEntity.class));
+        dbUtils.getDbHandler().deleteDataBase();
+    }
+
+    public void testPersistWithoutDisk() throws Exception {
+        try {
+            dbUtils.persist(SerializableObject.class);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
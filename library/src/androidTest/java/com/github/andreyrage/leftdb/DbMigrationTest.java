@@ -16,13 +16,16 @@
 
 package com.github.andreyrage.leftdb;
 
+import android.database.Cursor;
 import android.test.AndroidTestCase;
 
 import com.github.andreyrage.leftdb.entities.AllFields;
 import com.github.andreyrage.leftdb.entities.ChildMany;
 import com.github.andreyrage.leftdb.entities.ChildOne;
+import com.github.andreyrage.leftdb.entities.SerializableObject;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * Created by rage on 11/19/15.
@@ -82,4 +85,90 @@ public class DbMigrationTest extends AndroidTestCase {
         }
     }
 
+
+    public void testSchemaDiffMigration() throws Exception {
+        DBUtilsMigration dbUtils = DBUtilsMigration.newInstance(getContext(), DB_MANE, 1);
+        dbUtils.db.execSQL("CREATE TABLE ChildOne (id INTEGER PRIMARY KEY AUTOINCREMENT, parentId INTEGER);");
+        dbUtils.db.execSQL("INSERT INTO ChildOne (id, parentId) VALUES (1, 10);");
+
+        dbUtils.migrateTable(dbUtils.db, ChildOne.class);
+
+        Cursor cursor = dbUtils.db.rawQuery("PRAGMA table_info(ChildOne)", null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+        List<ChildOne> dbList = dbUtils.getAll(ChildOne.class);
+        assertEquals(1, dbList.size());
+        assertEquals(10, dbList.get(0).getParentId());
+        assertNull(dbList.get(0).getName());
+        dbUtils.db.close();
+    }
+
+    public void testMigrationKeepsTypesWithSameAffinity() throws Exception {
+        DBUtilsMigration dbUtils = DBUtilsMigration.newInstance(getContext(), DB_MANE, 1);
+        String sql = "CREATE TABLE ChildOne (id INTEGER PRIMARY KEY AUTOINCREMENT, parentId INT, name VARCHAR(255))";
+        dbUtils.db.execSQL(sql);
+        dbUtils.db.execSQL("INSERT INTO ChildOne (id, parentId, name) VALUES (1, 10, 'name');");
+
+        dbUtils.migrateTable(dbUtils.db, ChildOne.class);
+
+        assertEquals(sql, getTableSQL(dbUtils, "ChildOne"));
+        assertEquals("name", dbUtils.getAll(ChildOne.class).get(0).getName());
+        dbUtils.db.close();
+    }
+
+    public void testMigrationRebuildsTable() throws Exception {
+        DBUtilsMigration dbUtils = DBUtilsMigration.newInstance(getContext(), DB_MANE, 1);
+        dbUtils.db.execSQL("CREATE TABLE ChildOne (id INTEGER PRIMARY KEY AUTOINCREMENT, parentId TEXT, name TEXT);");
+        dbUtils.db.execSQL("INSERT INTO ChildOne (id, parentId, name) VALUES (1, '10', 'name');");
+
+        dbUtils.migrateTable(dbUtils.db, ChildOne.class);
+
+        Cursor cursor = dbUtils.db.rawQuery("SELECT typeof(parentId) FROM ChildOne", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("integer", cursor.getString(0));
+        cursor.close();
+        List<ChildOne> dbList = dbUtils.getAll(ChildOne.class);
+        assertEquals(1, dbList.size());
+        assertEquals(10, dbList.get(0).getParentId());
+        assertEquals("name", dbList.get(0).getName());
+        dbUtils.db.close();
+    }
+
+    public void testRebuildReferencedTableOnUpgrade() throws Exception {
+        {
+            DBUtilsMigration dbUtils = DBUtilsMigration.newInstance(getContext(), DB_MANE, 3);
+            dbUtils.db.execSQL("CREATE TABLE Object (id INTEGER PRIMARY KEY AUTOINCREMENT, otherName BLOB);");
+            dbUtils.db.execSQL("CREATE TABLE Note (id INTEGER PRIMARY KEY, "
+                    + "objectId INTEGER REFERENCES Object(id) ON DELETE CASCADE);");
+            dbUtils.db.execSQL("INSERT INTO Object (id, otherName) VALUES (1, 'first');");
+            dbUtils.db.execSQL("INSERT INTO Note (id, objectId) VALUES (1, 1);");
+            dbUtils.db.close();
+        }
+        {
+            DBUtilsMigration dbUtils = DBUtilsMigration.newInstance(getContext(), DB_MANE, 4);
+            assertEquals(4, dbUtils.db.getVersion());
+            assertTrue(getTableSQL(dbUtils, "Object").contains("otherName TEXT"));
+            List<SerializableObject> objects = dbUtils.getAll(SerializableObject.class);
+            assertEquals(1, objects.size());
+            assertEquals("first", objects.get(0).getName());
+            Cursor cursor = dbUtils.db.rawQuery("SELECT COUNT(*) FROM Note WHERE objectId = 1", null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getInt(0));
+            cursor.close();
+            cursor = dbUtils.db.rawQuery("PRAGMA foreign_keys", null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getInt(0));
+            cursor.close();
+            dbUtils.db.close();
+        }
+    }
+
+    private String getTableSQL(DBUtilsMigration dbUtils, String tableName) {
+        Cursor cursor = dbUtils.db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] {tableName});
+        assertTrue(cursor.moveToFirst());
+        String sql = cursor.getString(0);
+        cursor.close();
+        return sql;
+    }
 }
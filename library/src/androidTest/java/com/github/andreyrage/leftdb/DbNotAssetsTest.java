@@ -16,6 +16,19 @@
 
 package com.github.andreyrage.leftdb;
 
+import android.database.Cursor;
+import android.database.SQLException;
+
+import com.github.andreyrage.leftdb.config.RelationshipConfig;
+import com.github.andreyrage.leftdb.entities.IndexedEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class DbNotAssetsTest extends DbAssetsTest {
 
     @Override
@@ -24,4 +37,73 @@ public class DbNotAssetsTest extends DbAssetsTest {
         dbUtils = DBUtils.newInstance(getContext(), "notassets.sqlite", 1);
         assertNotNull(dbUtils.db);
     }
+
+    public void testChildForeignKeyIndex() throws Exception {
+        Cursor cursor = dbUtils.db.rawQuery(
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = ?",
+                new String[] {"ChildOne"});
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getInt(0) > 0);
+        cursor.close();
+    }
+
+    public void testAnnotatedIndices() throws Exception {
+        dbUtils.createTable(dbUtils.db, IndexedEntity.class, RelationshipConfig.builder()
+                .parentTable("Object")
+                .parentKey("id")
+                .foreignKey("parentId")
+                .build());
+
+        Map<String, Boolean> indices = getIndices("IndexedEntity");
+        assertEquals(Boolean.FALSE, indices.get("index_IndexedEntity_name"));
+        assertEquals(Boolean.TRUE, indices.get("unique_IndexedEntity_code"));
+        assertEquals(Boolean.TRUE, indices.get("indexed_category_rank"));
+        assertEquals(Boolean.FALSE, indices.get("index_IndexedEntity_parentId"));
+        assertEquals(Collections.singletonList("name"), getIndexColumns("index_IndexedEntity_name"));
+        assertEquals(Collections.singletonList("code"), getIndexColumns("unique_IndexedEntity_code"));
+        assertEquals(Arrays.asList("category", "rank"), getIndexColumns("indexed_category_rank"));
+        assertEquals(Collections.singletonList("parentId"), getIndexColumns("index_IndexedEntity_parentId"));
+    }
+
+    public void testUniqueIndexIsEnforced() throws Exception {
+        dbUtils.createTable(dbUtils.db, IndexedEntity.class);
+        dbUtils.add(new IndexedEntity(1, "first", "a", "x", 1, null));
+
+        try {
+            dbUtils.db.execSQL("INSERT INTO IndexedEntity (id, name, code, category, rank) "
+                    + "VALUES (2, 'second', 'a', 'y', 1)");
+            fail();
+        } catch (SQLException expected) {
+        }
+        try {
+            dbUtils.db.execSQL("INSERT INTO IndexedEntity (id, name, code, category, rank) "
+                    + "VALUES (3, 'third', 'b', 'x', 1)");
+            fail();
+        } catch (SQLException expected) {
+        }
+        dbUtils.db.execSQL("INSERT INTO IndexedEntity (id, name, code, category, rank) "
+                + "VALUES (4, 'fourth', 'c', 'x', 2)");
+        assertEquals(2, dbUtils.count(IndexedEntity.class));
+    }
+
+    private Map<String, Boolean> getIndices(String tableName) {
+        Map<String, Boolean> indices = new HashMap<>();
+        Cursor cursor = dbUtils.db.rawQuery(String.format("PRAGMA index_list(%s)", tableName), null);
+        while (cursor.moveToNext()) {
+            indices.put(cursor.getString(cursor.getColumnIndex("name")),
+                    cursor.getInt(cursor.getColumnIndex("unique")) == 1);
+        }
+        cursor.close();
+        return indices;
+    }
+
+    private List<String> getIndexColumns(String indexName) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = dbUtils.db.rawQuery(String.format("PRAGMA index_info(%s)", indexName), null);
+        while (cursor.moveToNext()) {
+            columns.add(cursor.getString(cursor.getColumnIndex("name")));
+        }
+        cursor.close();
+        return columns;
+    }
 }
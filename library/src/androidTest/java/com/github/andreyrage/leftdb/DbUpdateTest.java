@@ -16,11 +16,23 @@
 
 package com.github.andreyrage.leftdb;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.annotation.NonNull;
 import android.test.AndroidTestCase;
 
+import com.github.andreyrage.leftdb.config.DbConfig;
 import com.github.andreyrage.leftdb.entities.SerializableObject;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by rage on 11/19/15.
@@ -47,9 +59,138 @@ public class DbUpdateTest extends AndroidTestCase {
         {
             DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstance(getContext(), DB_MANE, 2);
             assertNotNull(dbUtils.db);
+            assertTrue(dbUtils.assetAttached);
             assertEquals(4, dbUtils.getAll(SerializableObject.class).size());
+            Cursor cursor = dbUtils.db.rawQuery("SELECT typeof(value) FROM Typed ORDER BY id", null);
+            List<String> types = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                types.add(cursor.getString(0));
+            }
+            cursor.close();
+            assertEquals(Arrays.asList("integer", "real", "blob", "null", "text"), types);
             dbUtils.db.close();
         }
     }
 
+    public void testUpgradeRowsPerTable() throws Exception {
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstance(getContext(), DB_MANE, 1);
+            assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+            dbUtils.deleteAll(SerializableObject.class);
+            dbUtils.db.close();
+        }
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstanceSameAsset(getContext(), DB_MANE, 2);
+            assertTrue(dbUtils.assetAttached);
+            assertFalse(new File(getContext().getFilesDir() + "/databases/LeftDbTemp_v2_" + DB_MANE).exists());
+            assertNotNull(dbUtils.upgradedRows);
+            assertEquals(Integer.valueOf(2), dbUtils.upgradedRows.get("Object"));
+            assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+            dbUtils.db.close();
+        }
+    }
+
+    public void testUpgradeChangesPublishedOnCommit() throws Exception {
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstance(getContext(), DB_MANE, 1);
+            dbUtils.deleteAll(SerializableObject.class);
+            dbUtils.db.close();
+        }
+        final List<Set<String>> tables = new ArrayList<>();
+        final List<Boolean> inTransaction = new ArrayList<>();
+        {
+            final DBUtilsUpdate dbUtils = DBUtilsUpdate.sameAsset();
+            dbUtils.failUpgrade = true;
+            dbUtils.getChangeBus().addListener(new ChangeBus.Listener() {
+                @Override
+                public void onChange(@NonNull Set<String> changedTables, @NonNull Map<String, Set<Long>> rowIds) {
+                    tables.add(changedTables);
+                }
+            });
+            try {
+                dbUtils.setDBContext(getContext(), DB_MANE, 2);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+            dbUtils.getDbHandler().close();
+            assertTrue(tables.isEmpty());
+        }
+        {
+            final DBUtilsUpdate dbUtils = DBUtilsUpdate.sameAsset();
+            dbUtils.getChangeBus().addListener(new ChangeBus.Listener() {
+                @Override
+                public void onChange(@NonNull Set<String> changedTables, @NonNull Map<String, Set<Long>> rowIds) {
+                    tables.add(changedTables);
+                    inTransaction.add(dbUtils.db.inTransaction());
+                }
+            });
+            dbUtils.setDBContext(getContext(), DB_MANE, 2);
+            assertEquals(1, tables.size());
+            assertTrue(tables.get(0).contains("Object"));
+            assertEquals(Collections.singletonList(false), inTransaction);
+            assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+            dbUtils.db.close();
+        }
+    }
+
+    public void testUpgradeKeepsWriteAheadLogging() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstance(getContext(), DB_MANE, 1);
+            dbUtils.deleteAll(SerializableObject.class);
+            dbUtils.db.close();
+        }
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.sameAsset();
+            dbUtils.setDBContext(getContext(), DB_MANE, 2, DbConfig.builder()
+                    .journalMode(DbConfig.JOURNAL_WAL)
+                    .build());
+            assertTrue(dbUtils.assetAttached);
+            assertEquals("wal", journalMode(dbUtils.db));
+
+            // rows are copied outside of the version change on a separate connection
+            dbUtils.deleteAll(SerializableObject.class);
+            assertEquals(Integer.valueOf(2), dbUtils.upgradeRowsPerTable(dbUtils.db).get("Object"));
+            assertEquals("wal", journalMode(dbUtils.db));
+            assertEquals(2, dbUtils.getAll(SerializableObject.class).size());
+
+            // snapshot attaches its file on a separate connection too
+            File snapshot = new File(getContext().getFilesDir(), "update_snapshot.sqlite");
+            dbUtils.snapshotTo(snapshot);
+            assertEquals("wal", journalMode(dbUtils.db));
+            snapshot.delete();
+            dbUtils.getDbHandler().deleteDataBase();
+        }
+    }
+
+    private String journalMode(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        String journalMode = cursor.getString(0);
+        cursor.close();
+        return journalMode.toLowerCase(Locale.US);
+    }
+
+    public void testUpgradeRowsDelta() throws Exception {
+        File dbFile = new File(getContext().getFilesDir() + "/databases/delta.sqlite");
+        dbFile.delete();
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstance(getContext(), "delta.sqlite", 1);
+            assertEquals(4, dbUtils.getAll(SerializableObject.class).size());
+            dbUtils.db.execSQL("UPDATE Object SET name = 'Local' WHERE id IN (2, 3)");
+            dbUtils.db.execSQL("INSERT INTO Object (id, name) VALUES (5, 'Local')");
+            dbUtils.db.close();
+        }
+        {
+            DBUtilsUpdate dbUtils = DBUtilsUpdate.newInstanceDelta(getContext(), "delta.sqlite", 2);
+            assertNotNull(dbUtils.upgradedRows);
+            assertEquals(Integer.valueOf(2), dbUtils.upgradedRows.get("Object"));
+            assertEquals(4, dbUtils.getAll(SerializableObject.class).size());
+            assertEquals(1, dbUtils.count(SerializableObject.class, "name = 'Local'"));
+            dbUtils.getDbHandler().deleteDataBase();
+        }
+    }
+
 }
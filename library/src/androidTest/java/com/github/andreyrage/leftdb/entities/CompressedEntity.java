@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.entities;
+
+import com.github.andreyrage.leftdb.annotation.ColumnDAO;
+import com.github.andreyrage.leftdb.annotation.ColumnPrimaryKey;
+import com.github.andreyrage.leftdb.annotation.Compressed;
+
+import java.util.ArrayList;
+
+public class CompressedEntity {
+    @ColumnPrimaryKey private long id;
+    @ColumnDAO @Compressed(minBytes = 64) private SerializableObject dao;
+    @Compressed(minBytes = 64) private ArrayList<String> list;
+
+    public CompressedEntity() {
+    }
+
+    public CompressedEntity(long id, SerializableObject dao, ArrayList<String> list) {
+        this.id = id;
+        this.dao = dao;
+        this.list = list;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CompressedEntity that = (CompressedEntity) o;
+
+        if (id != that.id) return false;
+        if (dao != null ? !dao.equals(that.dao) : that.dao != null) return false;
+        return list != null ? list.equals(that.list) : that.list == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (dao != null ? dao.hashCode() : 0);
+        result = 31 * result + (list != null ? list.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedEntity{" +
+                "id=" + id +
+                ", dao=" + dao +
+                ", list=" + list +
+                '}';
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public SerializableObject getDao() {
+        return dao;
+    }
+
+    public void setDao(SerializableObject dao) {
+        this.dao = dao;
+    }
+
+    public ArrayList<String> getList() {
+        return list;
+    }
+
+    public void setList(ArrayList<String> list) {
+        this.list = list;
+    }
+}
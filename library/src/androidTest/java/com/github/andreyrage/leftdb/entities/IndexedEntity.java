@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.entities;
+
+import com.github.andreyrage.leftdb.annotation.ColumnPrimaryKey;
+import com.github.andreyrage.leftdb.annotation.Index;
+import com.github.andreyrage.leftdb.annotation.Indices;
+import com.github.andreyrage.leftdb.annotation.Unique;
+
+@Indices({@Index(name = "indexed_category_rank", columns = {"category", "rank"}, unique = true)})
+public class IndexedEntity {
+    @ColumnPrimaryKey private long id;
+    @Index private String name;
+    @Unique private String code;
+    private String category;
+    private int rank;
+    private Long parentId;
+
+    public IndexedEntity() {
+    }
+
+    public IndexedEntity(long id, String name, String code, String category, int rank, Long parentId) {
+        this.id = id;
+        this.name = name;
+        this.code = code;
+        this.category = category;
+        this.rank = rank;
+        this.parentId = parentId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public Long getParentId() {
+        return parentId;
+    }
+}
@@ -24,13 +24,20 @@ import android.os.AsyncTask;
 public class AsyncCall<Result> extends AsyncTask<Void, Void, Result> {
 
     private Call<Result> mCall;
+    private CancellableCall<Result> mCancellableCall;
     private Do<Result> mDoNext;
+    private final CancellationToken mToken = new CancellationToken();
 
     private AsyncCall(Call<Result> call, Do<Result> doNext) {
         mCall = call;
         mDoNext = doNext;
     }
 
+    private AsyncCall(CancellableCall<Result> call, Do<Result> doNext) {
+        mCancellableCall = call;
+        mDoNext = doNext;
+    }
+
     public static <Result> AsyncCall make(Call<Result> call, Do<Result> doNext) {
         return new AsyncCall<>(call, doNext);
     }
@@ -39,10 +46,25 @@ public class AsyncCall<Result> extends AsyncTask<Void, Void, Result> {
         return new AsyncCall<>(call, null);
     }
 
+    /**
+     * Make call that receives {@link CancellationToken}; the token is canceled
+     * together with this call by {@link #cancel()}
+     * */
+    public static <Result> AsyncCall make(CancellableCall<Result> call, Do<Result> doNext) {
+        return new AsyncCall<>(call, doNext);
+    }
+
+    public static <Result> AsyncCall make(CancellableCall<Result> call) {
+        return new AsyncCall<>(call, null);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected Result doInBackground(Void... params) {
         try {
+            if (mCancellableCall != null) {
+                return mCancellableCall.call(mToken);
+            }
             return mCall.call();
         } catch (Exception e) {
             return (Result) new MonitorClass(e);
@@ -68,6 +90,10 @@ public class AsyncCall<Result> extends AsyncTask<Void, Void, Result> {
         Result call();
     }
 
+    public interface CancellableCall<Result> {
+        Result call(CancellationToken token);
+    }
+
     public interface Do<Result> {
         void doNext(Result result);
     }
@@ -76,6 +102,17 @@ public class AsyncCall<Result> extends AsyncTask<Void, Void, Result> {
         execute();
     }
 
+    /**
+     * Cancel the call and the queries that use its {@link CancellationToken};
+     * {@link Do#doNext} will not be called
+     *
+     * @return false if the call could not be cancelled
+     * */
+    public boolean cancel() {
+        mToken.cancel();
+        return cancel(true);
+    }
+
     private static class MonitorClass {
         private Exception mException;
 
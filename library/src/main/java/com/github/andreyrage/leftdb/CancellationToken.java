@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.andreyrage.leftdb.exceptions.QueryCanceledException;
+
+/**
+ * Token to cancel a running query.
+ *
+ * On Jelly Bean and higher it is mapped to {@link CancellationSignal}, so
+ * SQLite stops the statement itself; on older versions the query is
+ * interrupted between rows while mapping the results.
+ * */
+public class CancellationToken {
+
+	private volatile boolean canceled;
+	private Object signal;
+
+	/**
+	 * Cancels the query that uses this token.
+	 * A canceled query throws {@link QueryCanceledException}
+	 * */
+	public void cancel() {
+		Object currentSignal;
+		synchronized (this) {
+			if (canceled) {
+				return;
+			}
+			canceled = true;
+			currentSignal = signal;
+		}
+		if (currentSignal != null) {
+			SignalCompat.cancel(currentSignal);
+		}
+	}
+
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	public void throwIfCanceled() {
+		if (canceled) {
+			throw new QueryCanceledException("The query has been canceled");
+		}
+	}
+
+	@NonNull
+	Cursor rawQuery(@NonNull SQLiteDatabase db, @NonNull String sql, @Nullable String[] selectionArgs) {
+		throwIfCanceled();
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			return db.rawQuery(sql, selectionArgs);
+		}
+		return SignalCompat.rawQuery(db, sql, selectionArgs, signal());
+	}
+
+	@NonNull
+	Cursor query(@NonNull SQLiteDatabase db, boolean distinct, @NonNull String table,
+				 @Nullable String[] columns, @Nullable String selection,
+				 @Nullable String[] selectionArgs, @Nullable String groupBy,
+				 @Nullable String having, @Nullable String orderBy, @Nullable String limit) {
+		throwIfCanceled();
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			return db.query(distinct, table, columns, selection, selectionArgs,
+					groupBy, having, orderBy, limit);
+		}
+		return SignalCompat.query(db, distinct, table, columns, selection, selectionArgs,
+				groupBy, having, orderBy, limit, signal());
+	}
+
+	@NonNull
+	Cursor rawQueryWithFactory(@NonNull SQLiteDatabase db, @NonNull SQLiteDatabase.CursorFactory factory,
+							   @NonNull String sql, @Nullable String editTable) {
+		throwIfCanceled();
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			return db.rawQueryWithFactory(factory, sql, null, editTable);
+		}
+		return SignalCompat.rawQueryWithFactory(db, factory, sql, editTable, signal());
+	}
+
+	@NonNull
+	private synchronized Object signal() {
+		if (signal == null) {
+			signal = SignalCompat.create();
+			if (canceled) {
+				SignalCompat.cancel(signal);
+			}
+		}
+		return signal;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private static class SignalCompat {
+
+		private static Object create() {
+			return new CancellationSignal();
+		}
+
+		private static void cancel(Object signal) {
+			((CancellationSignal) signal).cancel();
+		}
+
+		private static Cursor rawQuery(SQLiteDatabase db, String sql, String[] selectionArgs,
+									   Object signal) {
+			try {
+				return db.rawQuery(sql, selectionArgs, (CancellationSignal) signal);
+			} catch (OperationCanceledException e) {
+				throw new QueryCanceledException("The query has been canceled");
+			}
+		}
+
+		private static Cursor rawQueryWithFactory(SQLiteDatabase db, SQLiteDatabase.CursorFactory factory,
+												  String sql, String editTable, Object signal) {
+			try {
+				return db.rawQueryWithFactory(factory, sql, null, editTable, (CancellationSignal) signal);
+			} catch (OperationCanceledException e) {
+				throw new QueryCanceledException("The query has been canceled");
+			}
+		}
+
+		private static Cursor query(SQLiteDatabase db, boolean distinct, String table,
+									String[] columns, String selection, String[] selectionArgs,
+									String groupBy, String having, String orderBy, String limit,
+									Object signal) {
+			try {
+				return db.query(distinct, table, columns, selection, selectionArgs,
+						groupBy, having, orderBy, limit, (CancellationSignal) signal);
+			} catch (OperationCanceledException e) {
+				throw new QueryCanceledException("The query has been canceled");
+			}
+		}
+	}
+}
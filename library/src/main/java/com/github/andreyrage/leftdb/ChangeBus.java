@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects table changes made through {@link LeftDBUtils} and publishes them to listeners.
+ *
+ * Changes made inside a transaction are buffered per thread and published once
+ * when the outermost transaction is committed; they are dropped on rollback.
+ * Listeners are called on the writing thread after the transaction has ended,
+ * so the database is not locked while they run.
+ * */
+public class ChangeBus {
+
+	private static final String TAG = ChangeBus.class.getName();
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+
+	/**
+	 * Register listener for table changes
+	 * */
+	public void addListener(@NonNull Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(@NonNull Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Report a changed row
+	 *
+	 * @param table name of the changed table
+	 * @param rowId id of the changed row
+	 * */
+	public void report(@NonNull String table, long rowId) {
+		Changes changes = new Changes();
+		changes.add(table, rowId);
+		report(changes);
+	}
+
+	/**
+	 * Report a change of unknown rows, e.g. delete or update with where clause
+	 *
+	 * @param table name of the changed table
+	 * */
+	public void report(@NonNull String table) {
+		Changes changes = new Changes();
+		changes.add(table);
+		report(changes);
+	}
+
+	private void report(@NonNull Changes changes) {
+		Transaction current = transaction.get();
+		if (current != null) {
+			current.changes.merge(changes);
+		} else {
+			publish(changes);
+		}
+	}
+
+	void beginTransaction() {
+		Transaction current = transaction.get();
+		if (current == null) {
+			current = new Transaction();
+			transaction.set(current);
+		}
+		current.successful.add(false);
+	}
+
+	void setTransactionSuccessful() {
+		Transaction current = transaction.get();
+		if (current != null && !current.successful.isEmpty()) {
+			current.successful.set(current.successful.size() - 1, true);
+		}
+	}
+
+	/**
+	 * Must be called after the database transaction has ended
+	 *
+	 * @param ended false if ending of the database transaction failed
+	 * */
+	void endTransaction(boolean ended) {
+		Transaction current = transaction.get();
+		if (current == null || current.successful.isEmpty()) {
+			return;
+		}
+		if (!current.successful.remove(current.successful.size() - 1) || !ended) {
+			current.failed = true;
+		}
+		if (current.successful.isEmpty()) {
+			transaction.remove();
+			if (!current.failed) {
+				publish(current.changes);
+			}
+		}
+	}
+
+	private void publish(@NonNull Changes changes) {
+		if (changes.tables.isEmpty() || listeners.isEmpty()) {
+			return;
+		}
+		Set<String> tables = Collections.unmodifiableSet(changes.tables);
+		Map<String, Set<Long>> rowIds = new HashMap<>();
+		for (Map.Entry<String, Set<Long>> entry : changes.rowIds.entrySet()) {
+			rowIds.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+		}
+		rowIds = Collections.unmodifiableMap(rowIds);
+		for (Listener listener : listeners) {
+			try {
+				listener.onChange(tables, rowIds);
+			} catch (Exception e) {
+				Log.e(TAG, "publish", e);
+			}
+		}
+	}
+
+	public interface Listener {
+		/**
+		 * Called once per committed transaction or per write outside of transaction
+		 *
+		 * @param tables names of the changed tables
+		 * @param rowIds ids of the changed rows by table name; tables that were
+		 *     changed by bulk operations (where clause, upgrade) are not present here
+		 * */
+		void onChange(@NonNull Set<String> tables, @NonNull Map<String, Set<Long>> rowIds);
+	}
+
+	private static class Transaction {
+		private final Changes changes = new Changes();
+		private final List<Boolean> successful = new ArrayList<>();
+		private boolean failed;
+	}
+
+	private static class Changes {
+		private final Set<String> tables = new LinkedHashSet<>();
+		private final Set<String> bulkTables = new HashSet<>();
+		private final Map<String, Set<Long>> rowIds = new HashMap<>();
+
+		private void add(@NonNull String table, long rowId) {
+			tables.add(table);
+			if (bulkTables.contains(table)) {
+				return;
+			}
+			Set<Long> ids = rowIds.get(table);
+			if (ids == null) {
+				ids = new LinkedHashSet<>();
+				rowIds.put(table, ids);
+			}
+			ids.add(rowId);
+		}
+
+		private void add(@NonNull String table) {
+			tables.add(table);
+			bulkTables.add(table);
+			rowIds.remove(table);
+		}
+
+		private void merge(@NonNull Changes changes) {
+			for (String table : changes.bulkTables) {
+				add(table);
+			}
+			for (Map.Entry<String, Set<Long>> entry : changes.rowIds.entrySet()) {
+				for (Long id : entry.getValue()) {
+					add(entry.getKey(), id);
+				}
+			}
+		}
+	}
+}
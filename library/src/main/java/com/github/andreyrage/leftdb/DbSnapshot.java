@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes a consistent copy of the open database to a file, see {@link LeftDBUtils#snapshotTo(File)}.
+ *
+ * VACUUM INTO (SQLite 3.27+) reads the database in one read transaction, so in WAL
+ * mode writers are not blocked. On older SQLite the schema is created in the new file,
+ * the file is attached and all tables are copied in one transaction with their rowids.
+ * */
+final class DbSnapshot {
+
+	private static final String SCHEMA = "leftdb_snapshot";
+	private static final String MEMORY_PATH = ":memory:";
+	private static final String[] FTS_SHADOW_SUFFIXES = {"_content", "_segments", "_segdir", "_docsize", "_stat"};
+	private static final Pattern WITHOUT_ROWID =
+			Pattern.compile("\\)\\s*WITHOUT\\s+ROWID\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+
+	private DbSnapshot() {
+	}
+
+	static void write(@NonNull SQLiteDatabase db, @NonNull File file,
+					  @Nullable LeftDBUtils.OnSnapshotProgress progress) throws IOException {
+		write(db, file, progress, true);
+	}
+
+	/**
+	 * @param vacuumInto false to copy tables even if SQLite supports VACUUM INTO
+	 * */
+	static void write(@NonNull SQLiteDatabase db, @NonNull File file,
+					  @Nullable LeftDBUtils.OnSnapshotProgress progress, boolean vacuumInto) throws IOException {
+		if (db.inTransaction()) {
+			throw new IllegalStateException("Snapshot can't be written inside a transaction");
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		File tempFile = new File(file.getPath() + ".tmp");
+		tempFile.delete();
+		try {
+			if (vacuumInto && isVacuumIntoSupported(db)) {
+				db.execSQL("VACUUM INTO ?", new Object[] {tempFile.getPath()});
+				if (progress != null) {
+					progress.onProgress(1, 1);
+				}
+			} else {
+				copy(db, tempFile, progress);
+			}
+		} catch (SQLException e) {
+			tempFile.delete();
+			IOException exception = new IOException("Can't write snapshot to " + file);
+			exception.initCause(e);
+			throw exception;
+		}
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Can't rename " + tempFile + " to " + file);
+		}
+	}
+
+	private static boolean isVacuumIntoSupported(@NonNull SQLiteDatabase db) {
+		Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+		String version = cursor.moveToFirst() ? cursor.getString(0) : null;
+		cursor.close();
+		if (version == null) {
+			return false;
+		}
+		String[] parts = version.split("\\.");
+		try {
+			int major = Integer.parseInt(parts[0]);
+			int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+			return major > 3 || (major == 3 && minor >= 27);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static void copy(@NonNull SQLiteDatabase db, @NonNull File file,
+							 @Nullable LeftDBUtils.OnSnapshotProgress progress) {
+		Map<String, String> tablesSQL = new LinkedHashMap<>();
+		List<String> virtualTables = new ArrayList<>();
+		List<String> withoutRowIdTables = new ArrayList<>();
+		List<String> otherSQL = new ArrayList<>();
+		boolean hasSequence = false;
+		Cursor cursor = db.rawQuery("SELECT type, name, sql FROM main.sqlite_master", null);
+		while (cursor.moveToNext()) {
+			String type = cursor.getString(0);
+			String name = cursor.getString(1);
+			String sql = cursor.getString(2);
+			if (name.equals("sqlite_sequence")) {
+				hasSequence = true;
+			} else if (sql == null || name.startsWith("sqlite_") || name.equals("android_metadata")) {
+				continue;
+			} else if (type.equals("table")) {
+				tablesSQL.put(name, sql);
+				if (sql.toUpperCase(Locale.US).startsWith("CREATE VIRTUAL TABLE")) {
+					virtualTables.add(name);
+				} else if (WITHOUT_ROWID.matcher(sql).find()) {
+					withoutRowIdTables.add(name);
+				}
+			} else {
+				otherSQL.add(sql);
+			}
+		}
+		cursor.close();
+		// shadow tables are created by their virtual tables
+		for (String virtualTable : virtualTables) {
+			for (String suffix : FTS_SHADOW_SUFFIXES) {
+				tablesSQL.remove(virtualTable + suffix);
+			}
+		}
+		List<String> tables = new ArrayList<>(tablesSQL.keySet());
+
+		SQLiteDatabase snapshot = SQLiteDatabase.openOrCreateDatabase(file, null);
+		try {
+			for (String sql : tablesSQL.values()) {
+				snapshot.execSQL(sql);
+			}
+		} finally {
+			snapshot.close();
+		}
+
+		int total = tables.size() + 1;
+		// ATTACH disables write-ahead logging of the connection for its life,
+		// so rows are copied on a separate connection; in-memory database has no file to open
+		SQLiteDatabase source = MEMORY_PATH.equals(db.getPath()) ? db : LeftDBHandler.openConnection(db);
+		try {
+			source.execSQL("ATTACH DATABASE ? AS " + SCHEMA, new Object[] {file.getPath()});
+			// tables are copied in schema order, a rebuilt parent table may follow its children;
+			// foreign keys can't be switched inside a transaction
+			source.execSQL("PRAGMA foreign_keys=OFF;");
+			try {
+				source.beginTransaction();
+				try {
+					int done = 0;
+					for (String table : tables) {
+						List<String> columns = new ArrayList<>();
+						boolean hasRowIdColumn = false;
+						Cursor columnsCursor = source.rawQuery(String.format("SELECT * FROM main.%s LIMIT 0", table), null);
+						for (String column : columnsCursor.getColumnNames()) {
+							columns.add(column);
+							hasRowIdColumn |= column.equalsIgnoreCase("rowid");
+						}
+						columnsCursor.close();
+						String columnList = TextUtils.join(", ", columns);
+						// SELECT * doesn't return rowid without INTEGER PRIMARY KEY alias,
+						// full-text tables reference rows by rowid, so it is copied too
+						if (!hasRowIdColumn && !withoutRowIdTables.contains(table)) {
+							columnList = "rowid, " + columnList;
+						}
+						source.execSQL(String.format("INSERT INTO %s.%s (%s) SELECT %s FROM main.%s;",
+								SCHEMA, table, columnList, columnList, table));
+						if (progress != null) {
+							progress.onProgress(++done, total);
+						}
+					}
+					if (hasSequence) {
+						source.execSQL(String.format("DELETE FROM %s.sqlite_sequence;", SCHEMA));
+						source.execSQL(String.format("INSERT INTO %s.sqlite_sequence SELECT * FROM main.sqlite_sequence;", SCHEMA));
+					}
+					source.setTransactionSuccessful();
+				} finally {
+					source.endTransaction();
+				}
+			} finally {
+				source.execSQL("PRAGMA foreign_keys=ON;");
+				source.execSQL("DETACH DATABASE " + SCHEMA);
+			}
+		} finally {
+			if (source != db) {
+				source.close();
+			}
+		}
+
+		// indices and triggers are created after rows are copied, so triggers don't run twice
+		snapshot = SQLiteDatabase.openOrCreateDatabase(file, null);
+		try {
+			for (String sql : otherSQL) {
+				snapshot.execSQL(sql);
+			}
+			snapshot.setVersion(db.getVersion());
+		} finally {
+			snapshot.close();
+		}
+		if (progress != null) {
+			progress.onProgress(total, total);
+		}
+	}
+}
@@ -17,22 +17,52 @@
 package com.github.andreyrage.leftdb;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.github.andreyrage.leftdb.config.DbConfig;
+
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class LeftDBHandler extends SQLiteOpenHelper {
 
 	private static final String TAG = LeftDBHandler.class.getName();
+	/**
+	 * Schema name of the assets database attached during upgrade and downgrade
+	 * */
+	public static final String ASSET_SCHEMA = "leftdb_asset";
+	/**
+	 * Schema name of the disk database attached to in-memory database
+	 * */
+	public static final String DISK_SCHEMA = "leftdb_disk";
+	public static final String MEMORY_NAME = ":memory:";
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	private static final long COPY_TRANSFER_SIZE = 4 * 1024 * 1024;
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String ZIP_SUFFIX = ".zip";
 	private SQLiteDatabase dataBase;
 	private Context context;
 	private String name;
@@ -41,17 +71,30 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 
 	private OnDbChangeCallback mCallback;
 	private boolean isTemp;
+	private LeftDBHandler attachedAsset;
+	private DbConfig config;
+	private boolean isMemory;
+	private String diskName;
 
 	/**
 	 * Rightutils compatibility
 	 * */
 	public LeftDBHandler(@NonNull Context context, @NonNull String name, int version, @NonNull OnDbChangeCallback mCallback) {
+		this(context, name, version, mCallback, null);
+	}
+
+	/**
+	 * @param config {@link DbConfig} applied on every open
+	 * */
+	public LeftDBHandler(@NonNull Context context, @NonNull String name, int version,
+						 @NonNull OnDbChangeCallback mCallback, @Nullable DbConfig config) {
 		super(context, name, null, version);
 		this.context = context;
 		this.name = name;
 		this.path = context.getFilesDir() + "/databases/";
 		this.version = version;
 		this.mCallback = mCallback;
+		this.config = config;
 		try {
 			createOrCopyDataBaseFromAssets();
 		} catch (IOException e) {
@@ -59,6 +102,26 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * In-memory database, {@link OnDbChangeCallback#onCreate} is called on every open
+	 *
+	 * @param diskName name of the database file that is attached as {@link #DISK_SCHEMA},
+	 *     or null for in-memory database only
+	 * @param config {@link DbConfig} applied on open
+	 * */
+	public LeftDBHandler(@NonNull Context context, int version, @NonNull OnDbChangeCallback mCallback,
+						 @Nullable String diskName, @Nullable DbConfig config) {
+		super(context, null, null, version);
+		this.context = context;
+		this.name = MEMORY_NAME;
+		this.path = context.getFilesDir() + "/databases/";
+		this.version = version;
+		this.mCallback = mCallback;
+		this.config = config;
+		this.isMemory = true;
+		this.diskName = diskName;
+	}
+
 	protected LeftDBHandler(@NonNull Context context, @NonNull String name, int version, boolean tempDb) {
 		super(context, name, null, version);
 		this.context = context;
@@ -85,11 +148,33 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 		return version;
 	}
 
+	/**
+	 * @return true if database is in memory
+	 * */
+	public boolean isMemory() {
+		return isMemory;
+	}
+
+	/**
+	 * @return true if disk database is attached as {@link #DISK_SCHEMA} to in-memory database
+	 * */
+	public boolean isDiskAttached() {
+		return isMemory && diskName != null;
+	}
+
 	private void createOrCopyDataBaseFromAssets() throws IOException {
 		if (!checkDataBase()) {
 			if (assetsDbExists()) {
 				Log.i(TAG, "copy DataBase");
 				copyDataBase();
+				if (hasFileConfig()) {
+					SQLiteDatabase db = SQLiteDatabase.openDatabase(getDbPath(), null, SQLiteDatabase.OPEN_READWRITE);
+					try {
+						applyFileConfig(db);
+					} finally {
+						db.close();
+					}
+				}
 			} else {
 				Log.i(TAG, "create DataBase");
 				createDataBase();
@@ -101,6 +186,14 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 	 * Rightutils compatibility
 	 * */
 	public void deleteDataBase() {
+		if (isMemory) {
+			close();
+			dataBase = null;
+			if (diskName != null) {
+				new File(path + diskName).delete();
+			}
+			return;
+		}
 		if (checkDataBase()) {
 			close();
 			File dbFile = new File(path + getDbFileName());
@@ -108,8 +201,25 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * @return true if database or its compressed copy (name.gz or name.zip) exists in assets
+	 * */
 	protected boolean assetsDbExists() throws IOException {
-		return Arrays.asList(context.getAssets().list("")).contains(name);
+		return findAssetName() != null;
+	}
+
+	/**
+	 * @return name of the database asset: name, name.gz or name.zip;
+	 * null if assets don't contain database
+	 * */
+	private String findAssetName() throws IOException {
+		List<String> assets = Arrays.asList(context.getAssets().list(""));
+		for (String assetName : new String[] {name, name + GZIP_SUFFIX, name + ZIP_SUFFIX}) {
+			if (assets.contains(assetName)) {
+				return assetName;
+			}
+		}
+		return null;
 	}
 
 	protected boolean checkDataBase() {
@@ -122,23 +232,171 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 	 * */
 	private void createDataBase() {
 		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(getDbFile(), null);
+		if (hasFileConfig()) {
+			applyFileConfig(db);
+		}
 		db.close();
 	}
 
-	private void copyDataBase() throws IOException {
-		InputStream myInput = context.getAssets().open(name);
+	private boolean hasFileConfig() {
+		return config != null && !isTemp && (config.pageSize() != null || config.autoVacuum() != null);
+	}
+
+	/**
+	 * Page size and auto vacuum mode of created or copied database file
+	 * */
+	private void applyFileConfig(@NonNull SQLiteDatabase db) {
+		// page size and auto vacuum mode are changed only by VACUUM after the first page is written
+		if (config.pageSize() != null) {
+			db.execSQL("PRAGMA page_size=" + config.pageSize());
+		}
+		if (config.autoVacuum() != null) {
+			db.execSQL("PRAGMA auto_vacuum=" + config.autoVacuum());
+		}
+		db.execSQL("VACUUM");
+	}
 
+	/**
+	 * Copy database from assets to the temp file, sync it to disk and rename
+	 * it to the database file, so the database file never is partially copied.
+	 * Compressed databases (name.gz or name.zip) are decompressed while copying.
+	 * */
+	private void copyDataBase() throws IOException {
 		final File file = getDbFile();
+		final File tempFile = new File(file.getPath() + ".tmp");
+		final String assetName = findAssetName();
+		if (assetName == null) {
+			throw new FileNotFoundException("Database " + name + " not found in assets");
+		}
+
+		FileOutputStream output = new FileOutputStream(tempFile);
+		boolean copied = false;
+		try {
+			FileChannel outputChannel = output.getChannel();
+			if (assetName.endsWith(GZIP_SUFFIX)) {
+				long total = -1;
+				AssetFileDescriptor fd = openAssetFd(assetName);
+				if (fd != null) {
+					try {
+						total = getGzipSize(fd);
+					} finally {
+						fd.close();
+					}
+				}
+				copyStream(new GZIPInputStream(context.getAssets().open(assetName), COPY_BUFFER_SIZE),
+						outputChannel, total);
+			} else if (assetName.endsWith(ZIP_SUFFIX)) {
+				ZipInputStream input = new ZipInputStream(context.getAssets().open(assetName));
+				ZipEntry entry = input.getNextEntry();
+				while (entry != null && entry.isDirectory()) {
+					entry = input.getNextEntry();
+				}
+				if (entry == null) {
+					input.close();
+					throw new IOException("Empty archive " + assetName);
+				}
+				copyStream(input, outputChannel, entry.getSize());
+			} else {
+				AssetFileDescriptor fd = openAssetFd(assetName);
+				if (fd != null) {
+					try {
+						copyChannel(fd, outputChannel);
+					} finally {
+						fd.close();
+					}
+				} else {
+					copyStream(context.getAssets().open(assetName), outputChannel, -1);
+				}
+			}
+			outputChannel.force(true);
+			copied = true;
+		} finally {
+			output.close();
+			if (!copied) {
+				tempFile.delete();
+			}
+		}
+
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Can't rename " + tempFile + " to " + file);
+		}
+	}
+
+	/**
+	 * @return descriptor of the asset or null if the asset is compressed in apk
+	 * */
+	private AssetFileDescriptor openAssetFd(@NonNull String assetName) throws IOException {
+		try {
+			return context.getAssets().openFd(assetName);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return uncompressed size from the gzip trailer (ISIZE, little-endian) or -1
+	 * */
+	private long getGzipSize(@NonNull AssetFileDescriptor fd) throws IOException {
+		if (fd.getLength() < 4) {
+			return -1;
+		}
+		FileInputStream input = fd.createInputStream();
+		try {
+			ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			FileChannel channel = input.getChannel();
+			long position = fd.getStartOffset() + fd.getLength() - 4;
+			while (size.hasRemaining()) {
+				if (channel.read(size, position + size.position()) < 0) {
+					return -1;
+				}
+			}
+			return size.getInt(0) & 0xFFFFFFFFL;
+		} finally {
+			input.close();
+		}
+	}
+
+	private void copyChannel(@NonNull AssetFileDescriptor fd, @NonNull FileChannel output) throws IOException {
+		FileInputStream input = fd.createInputStream();
+		try {
+			FileChannel inputChannel = input.getChannel();
+			long total = fd.getLength();
+			long copied = 0;
+			while (copied < total) {
+				long transferred = inputChannel.transferTo(fd.getStartOffset() + copied,
+						Math.min(COPY_TRANSFER_SIZE, total - copied), output);
+				if (transferred <= 0) {
+					throw new IOException("Unexpected end of asset " + name);
+				}
+				copied += transferred;
+				onCopyProgress(copied, total);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private void copyStream(@NonNull InputStream input, @NonNull FileChannel output, long total) throws IOException {
+		try {
+			ReadableByteChannel inputChannel = Channels.newChannel(input);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+			long copied = 0;
+			while (inputChannel.read(buffer) >= 0 || buffer.position() > 0) {
+				buffer.flip();
+				copied += output.write(buffer);
+				buffer.compact();
+				onCopyProgress(copied, total);
+			}
+		} finally {
+			input.close();
+		}
+	}
 
-		OutputStream myOutput = new FileOutputStream(file);
-		byte[] buffer = new byte[1024];
-		int length;
-		while ((length = myInput.read(buffer)) > 0) {
-			myOutput.write(buffer, 0, length);
+	private void onCopyProgress(long copied, long total) {
+		if (mCallback instanceof OnCopyProgressListener) {
+			((OnCopyProgressListener) mCallback).onCopyProgress(copied, total);
 		}
-		myOutput.flush();
-		myOutput.close();
-		myInput.close();
 	}
 
 	private File getDbFile() {
@@ -159,16 +417,96 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 	 * Rightutils compatibility
 	 * */
 	public SQLiteDatabase openDataBase(int openType) throws SQLException {
-		String myPath = path + getDbFileName();
-		dataBase = SQLiteDatabase.openDatabase(myPath, null, openType);
+		if (isMemory) {
+			if (dataBase != null && dataBase.isOpen()) {
+				return dataBase;
+			}
+			dataBase = SQLiteDatabase.create(null);
+			if (diskName != null) {
+				new File(path).mkdirs();
+				dataBase.execSQL("ATTACH DATABASE ? AS " + DISK_SCHEMA, new Object[] {path + diskName});
+			}
+		} else {
+			String myPath = path + getDbFileName();
+			dataBase = SQLiteDatabase.openDatabase(myPath, null, openType);
+		}
 		dataBase.execSQL("PRAGMA foreign_keys=ON;");
-		if (!isTemp) {
-			validateVersion(dataBase);
+		if (!isTemp && validateVersion(dataBase) && !isMemory) {
+			// the framework disables write-ahead logging of the connection on ATTACH
+			// for the life of the connection, so the database is reopened
+			dataBase.close();
+			dataBase = SQLiteDatabase.openDatabase(path + getDbFileName(), null, openType);
+			dataBase.execSQL("PRAGMA foreign_keys=ON;");
+		}
+		if (config != null && !isTemp) {
+			applyConfig(dataBase, config);
 		}
 		return dataBase;
 	}
 
-	private void validateVersion(@NonNull SQLiteDatabase db) {
+	/**
+	 * Open a separate connection to the database file of the handle, so ATTACH
+	 * on the connection doesn't disable write-ahead logging of the handle.
+	 * The connection has to be closed by the caller.
+	 * */
+	static SQLiteDatabase openConnection(@NonNull SQLiteDatabase db) {
+		int flags = SQLiteDatabase.OPEN_READWRITE;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && db.isWriteAheadLoggingEnabled()) {
+			// opening without the flag would switch the file back to the rollback journal
+			flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+		}
+		SQLiteDatabase connection = SQLiteDatabase.openDatabase(db.getPath(), null, flags);
+		connection.execSQL("PRAGMA foreign_keys=ON;");
+		return connection;
+	}
+
+	/**
+	 * Per-connection settings reach only the primary connection, the framework
+	 * has no hook to configure pooled connections of write-ahead logging
+	 * */
+	private void applyConfig(@NonNull SQLiteDatabase db, @NonNull DbConfig config) {
+		if (config.journalMode() != null && !db.isReadOnly()) {
+			if (DbConfig.JOURNAL_WAL.equalsIgnoreCase(config.journalMode())
+					&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+				// the framework has to know about WAL to manage its connection pool
+				db.enableWriteAheadLogging();
+			} else if (!DbConfig.JOURNAL_WAL.equalsIgnoreCase(config.journalMode())) {
+				pragma(db, "journal_mode", config.journalMode());
+			}
+		}
+		if (config.synchronous() != null) {
+			pragma(db, "synchronous", config.synchronous());
+		}
+		if (config.cacheSize() != null) {
+			pragma(db, "cache_size", String.valueOf(config.cacheSize()));
+		}
+		if (config.mmapSize() != null) {
+			// ignored by SQLite older than 3.7.17
+			pragma(db, "mmap_size", String.valueOf(config.mmapSize()));
+		}
+		if (config.tempStore() != null) {
+			pragma(db, "temp_store", config.tempStore());
+		}
+	}
+
+	/**
+	 * Some PRAGMA statements return rows, so they are run with rawQuery
+	 * */
+	private void pragma(@NonNull SQLiteDatabase db, @NonNull String name, @NonNull String value) {
+		try {
+			Cursor cursor = db.rawQuery(String.format("PRAGMA %s=%s", name, value), null);
+			cursor.moveToFirst();
+			cursor.close();
+		} catch (SQLException e) {
+			Log.w(TAG, "pragma " + name, e);
+		}
+	}
+
+	/**
+	 * @return true if assets database was attached during the version change
+	 * */
+	private boolean validateVersion(@NonNull SQLiteDatabase db) {
+		boolean attached = false;
 		int currentVersion = db.getVersion();
 		if (currentVersion != version) {
 			if (mCallback != null) {
@@ -176,9 +514,23 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 					Log.e(TAG, "Can't upgrade read-only database from version " +
 							currentVersion + " to " + version);
 				}
+				// ATTACH is not allowed inside a transaction
+				attached = currentVersion > 0 && mCallback instanceof OnAttachAssetListener
+						&& ((OnAttachAssetListener) mCallback).shouldAttachAsset(currentVersion, version)
+						&& attachAsset(db);
+				// changes reported by the callback are published only if the version change is committed
+				ChangeBus changeBus = mCallback instanceof LeftDBUtils
+						? ((LeftDBUtils) mCallback).getChangeBus() : null;
+				boolean ended = false;
+				// foreign keys can't be switched inside a transaction; while they are off,
+				// referenced tables can be rebuilt, they are checked before commit
+				db.execSQL("PRAGMA foreign_keys=OFF;");
 				db.beginTransaction();
+				if (changeBus != null) {
+					changeBus.beginTransaction();
+				}
 				try {
-					if (currentVersion == 0 && !assetsDbExists()) {
+					if (currentVersion == 0 && (isMemory || !assetsDbExists())) {
 						mCallback.onCreate(db);
 					} else {
 						if (currentVersion > version) {
@@ -187,18 +539,102 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 							mCallback.onUpgrade(db, currentVersion, version);
 						}
 					}
+					checkForeignKeys(db);
 					db.setVersion(version);
 					db.setTransactionSuccessful();
+					if (changeBus != null) {
+						changeBus.setTransactionSuccessful();
+					}
 				} catch (IOException e) {
 					e.printStackTrace();
 				} finally {
-					db.endTransaction();
+					try {
+						db.endTransaction();
+						ended = true;
+					} finally {
+						db.execSQL("PRAGMA foreign_keys=ON;");
+						if (changeBus != null) {
+							changeBus.endTransaction(ended);
+						}
+						if (attached) {
+							detachAsset(db);
+						}
+					}
 				}
 			} else {
 				Log.e(TAG, "Can't upgrade database from version " + currentVersion
 						+ " to " + version + ", cause onVersionChangeCallback is null");
 			}
 		}
+		return attached;
+	}
+
+	/**
+	 * PRAGMA foreign_key_check is ignored by SQLite older than 3.7.16
+	 *
+	 * @throws SQLiteConstraintException if a row violates a foreign key
+	 * */
+	private void checkForeignKeys(@NonNull SQLiteDatabase db) {
+		Cursor cursor = db.rawQuery("PRAGMA foreign_key_check", null);
+		try {
+			if (cursor.moveToFirst()) {
+				throw new SQLiteConstraintException(String.format(
+						"Foreign key of table %s is violated after version change", cursor.getString(0)));
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Copy assets database to the temp file and attach it as {@link #ASSET_SCHEMA}
+	 *
+	 * @return true if attached
+	 * */
+	private boolean attachAsset(@NonNull SQLiteDatabase db) {
+		if (isTemp || isMemory) {
+			return false;
+		}
+		LeftDBHandler asset = null;
+		try {
+			if (!assetsDbExists()) {
+				return false;
+			}
+			asset = new LeftDBHandler(context, name, version, true);
+			db.execSQL("ATTACH DATABASE ? AS " + ASSET_SCHEMA, new Object[] {asset.getDbPath()});
+			attachedAsset = asset;
+			return true;
+		} catch (IOException | SQLException e) {
+			Log.w(TAG, "attachAsset", e);
+			if (asset != null) {
+				asset.deleteDataBase();
+			}
+			return false;
+		}
+	}
+
+	private void detachAsset(@NonNull SQLiteDatabase db) {
+		try {
+			db.execSQL("DETACH DATABASE " + ASSET_SCHEMA);
+		} catch (SQLException e) {
+			Log.w(TAG, "detachAsset", e);
+		}
+		attachedAsset.deleteDataBase();
+		attachedAsset = null;
+	}
+
+	/**
+	 * @return true if assets database with the name of this database is attached
+	 * as {@link #ASSET_SCHEMA}, it is attached only while {@link OnDbChangeCallback#onUpgrade}
+	 * or {@link OnDbChangeCallback#onDowngrade} is called and
+	 * {@link OnAttachAssetListener#shouldAttachAsset} returned true
+	 * */
+	public boolean isAssetAttached() {
+		return attachedAsset != null && attachedAsset.getName().equals(name);
+	}
+
+	String getDbPath() {
+		return getDbFile().getPath();
 	}
 
 	@Override
@@ -238,6 +674,31 @@ public class LeftDBHandler extends SQLiteOpenHelper {
 		return openDataBase(SQLiteDatabase.OPEN_READONLY);
 	}
 
+	/**
+	 * Implemented by {@link OnDbChangeCallback} to receive progress of
+	 * copying database from assets
+	 * */
+	public interface OnCopyProgressListener {
+		/**
+		 * @param copied number of copied bytes
+		 * @param total size of database or -1 if unknown
+		 * */
+		void onCopyProgress(long copied, long total);
+	}
+
+	/**
+	 * Implemented by {@link OnDbChangeCallback} to attach assets database as
+	 * {@link #ASSET_SCHEMA} while the version changes. Assets database is copied
+	 * to a temp file for that, so it is attached only on request;
+	 * {@link LeftDBUtils} requests it unless the versions are excluded.
+	 * */
+	public interface OnAttachAssetListener {
+		/**
+		 * @return true if rows are copied from assets database during the version change
+		 * */
+		boolean shouldAttachAsset(int oldVersion, int newVersion);
+	}
+
 	public interface OnDbChangeCallback {
 		void onCreate(SQLiteDatabase db);
 		void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
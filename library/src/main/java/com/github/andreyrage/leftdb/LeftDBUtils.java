@@ -20,11 +20,20 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.CursorWindow;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -37,34 +46,65 @@ import com.github.andreyrage.leftdb.annotation.ColumnDAO;
 import com.github.andreyrage.leftdb.annotation.ColumnIgnore;
 import com.github.andreyrage.leftdb.annotation.ColumnName;
 import com.github.andreyrage.leftdb.annotation.ColumnPrimaryKey;
+import com.github.andreyrage.leftdb.annotation.Compressed;
+import com.github.andreyrage.leftdb.annotation.FullTextSearch;
+import com.github.andreyrage.leftdb.annotation.Index;
+import com.github.andreyrage.leftdb.annotation.Indices;
+import com.github.andreyrage.leftdb.annotation.LazyColumn;
 import com.github.andreyrage.leftdb.annotation.TableName;
+import com.github.andreyrage.leftdb.annotation.Unique;
+import com.github.andreyrage.leftdb.codec.BlobCodec;
+import com.github.andreyrage.leftdb.codec.CompactBlobCodec;
+import com.github.andreyrage.leftdb.codec.JavaBlobCodec;
+import com.github.andreyrage.leftdb.config.DbConfig;
 import com.github.andreyrage.leftdb.config.RelationshipConfig;
 import com.github.andreyrage.leftdb.exceptions.IncorrectAutoIncTypeException;
+import com.github.andreyrage.leftdb.exceptions.QueryCanceledException;
 import com.github.andreyrage.leftdb.queries.CountQuery;
 import com.github.andreyrage.leftdb.queries.DeleteQuery;
+import com.github.andreyrage.leftdb.queries.SearchQuery;
 import com.github.andreyrage.leftdb.queries.SelectQuery;
 import com.github.andreyrage.leftdb.queries.UpdateQuery;
-import com.github.andreyrage.leftdb.utils.SerializeUtils;
+import com.github.andreyrage.leftdb.utils.CompressUtils;
+import com.github.andreyrage.leftdb.utils.SingleFlight;
+import com.github.andreyrage.leftdb.utils.WeakIdentityMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.nullableArrayOfStrings;
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.nullableString;
 
-public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
+public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback, LeftDBHandler.OnCopyProgressListener,
+        LeftDBHandler.OnAttachAssetListener {
 
     private static final String TAG = LeftDBUtils.class.getName();
 
@@ -77,6 +117,35 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     protected LeftDBHandler dbHandler;
     protected SQLiteDatabase db;
     protected boolean isTransaction;
+    protected final ChangeBus changeBus = new ChangeBus();
+    private final SingleFlight<Object, Object> inFlightQueries = new SingleFlight<>();
+    private final ChangeBus.Listener inFlightInvalidator = new ChangeBus.Listener() {
+        @Override
+        public void onChange(@NonNull Set<String> tables, @NonNull Map<String, Set<Long>> rowIds) {
+            inFlightQueries.forgetAll();
+        }
+    };
+    private volatile boolean isQueryDeduplication;
+    private volatile QueryPlanAnalyzer queryPlanAnalyzer;
+    private final BlobCodec compactBlobCodec = new CompactBlobCodec();
+    private final BlobCodec javaBlobCodec = new JavaBlobCodec();
+    private volatile BlobCodec blobCodec = compactBlobCodec;
+    private volatile int compressionThreshold = -1;
+    private final WeakIdentityMap<Object, Set<String>> unloadedLazyFields = new WeakIdentityMap<>();
+    private final Map<Class<?>, String[]> selectColumnsCache = new ConcurrentHashMap<>();
+    private final Map<Class<?>, String> selectSQLCache = new ConcurrentHashMap<>();
+    private final WeakIdentityMap<Object, ContentValues> snapshots = new WeakIdentityMap<>();
+    private volatile boolean isDirtyTracking;
+
+    private volatile CountDownLatch openLatch;
+    private volatile Thread openThread;
+    private volatile RuntimeException openException;
+
+    private static final String ASSET_CHANGES_TABLE = "leftdb_changes";
+    private static final String SEARCH_ROWID_COLUMN = "leftdb_rowid";
+    private static final String SEARCH_MATCHINFO_COLUMN = "leftdb_matchinfo";
+    private static final String SEARCH_HITS_COLUMN = "leftdb_hits";
+    private static final String UTF_8 = "UTF-8";
 
     /**
      * Initialize DBHandler
@@ -92,10 +161,232 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * Rightutils compatibility
      * */
     protected void setDBContext(@NonNull Context context, @NonNull String name, int version) {
-        dbHandler = new LeftDBHandler(context, name, version, this);
+        setDBContext(context, name, version, null);
+    }
+
+    /**
+     * Initialize DBHandler with connection settings,
+     * see {@link #setDBContext(Context, String, int)}
+     *
+     * @param config {@link DbConfig}, e.g. {@link DbConfig#readHeavy()}
+     * */
+    protected void setDBContext(@NonNull Context context, @NonNull String name, int version,
+                                @Nullable DbConfig config) {
+        clearSelectCache();
+        dbHandler = new LeftDBHandler(context, name, version, this, config);
+        db = dbHandler.getWritableDatabase();
+    }
+
+    /**
+     * Initialize DBHandler with in-memory database, {@link #onCreate} is called to
+     * create tables every time. Nothing is copied from assets.
+     *
+     * @param context is using for opening database
+     * @param version number of the database
+     * */
+    protected void setDBContextInMemory(@NonNull Context context, int version) {
+        setDBContextInMemory(context, version, null);
+    }
+
+    /**
+     * Initialize DBHandler with in-memory database and attach the database file
+     * for persistence. Operations work with in-memory tables, use {@link #persist}
+     * to save tables to the file and {@link #restore} to load them back.
+     *
+     * @param context is using for opening database
+     * @param version number of the database
+     * @param diskName name of the database file or null
+     * */
+    protected void setDBContextInMemory(@NonNull Context context, int version, @Nullable String diskName) {
+        clearSelectCache();
+        dbHandler = new LeftDBHandler(context, version, this, diskName, null);
         db = dbHandler.getWritableDatabase();
     }
 
+    /**
+     * Save rows of in-memory tables to the attached database file, replacing rows
+     * saved before; tables are created in the file if needed.
+     * See {@link #setDBContextInMemory(Context, int, String)}
+     *
+     * @param types The classes of tables
+     * */
+    public void persist(@NonNull Class<?>... types) {
+        copyTables(types, "main", LeftDBHandler.DISK_SCHEMA);
+    }
+
+    /**
+     * Load rows of tables from the attached database file to in-memory tables,
+     * replacing their rows. See {@link #setDBContextInMemory(Context, int, String)}
+     *
+     * @param types The classes of tables
+     * */
+    public void restore(@NonNull Class<?>... types) {
+        copyTables(types, LeftDBHandler.DISK_SCHEMA, "main");
+        for (Class<?> type : types) {
+            changeBus.report(getTableName(type));
+        }
+    }
+
+    private void copyTables(@NonNull Class<?>[] types, @NonNull String fromSchema, @NonNull String toSchema) {
+        if (dbHandler == null || !dbHandler.isDiskAttached()) {
+            throw new IllegalStateException("Database file is not attached, use setDBContextInMemory with diskName");
+        }
+        SQLiteDatabase database = database();
+        // replaced rows are deleted without ON DELETE actions on tables that are not copied;
+        // foreign keys can't be switched inside a transaction
+        database.execSQL("PRAGMA foreign_keys=OFF;");
+        database.beginTransaction();
+        try {
+            for (Class<?> type : types) {
+                String tableName = getTableName(type);
+                String toTable = String.format("%s.%s", toSchema, tableName);
+                database.execSQL(createTableSQL(toTable, type, null)
+                        .replaceFirst("CREATE TABLE ", "CREATE TABLE IF NOT EXISTS "));
+                List<String> columns = new ArrayList<>();
+                for (Field field : getColumnFields(type)) {
+                    columns.add(getColumnName(field));
+                }
+                String columnList = TextUtils.join(", ", columns);
+                database.execSQL(String.format("DELETE FROM %s;", toTable));
+                database.execSQL(String.format("INSERT INTO %s (%s) SELECT %s FROM %s.%s;",
+                        toTable, columnList, columnList, fromSchema, tableName));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            try {
+                database.endTransaction();
+            } finally {
+                database.execSQL("PRAGMA foreign_keys=ON;");
+            }
+        }
+    }
+
+    /**
+     * Initialize DBHandler like {@link #setDBContext(Context, String, int)}, but
+     * copying, opening and upgrading of the database are done on a background
+     * thread and this method returns immediately. Operations called before the
+     * database is opened wait for it on the calling thread.
+     *
+     * @param context is using for opening or creating database
+     * @param name of the database file
+     * @param version number of the database (starting at 1)
+     * @param listener is called on the main thread when database is opened or failed to open
+     * */
+    protected void setDBContextAsync(@NonNull Context context, @NonNull String name,
+                                     int version, @Nullable OnOpenListener listener) {
+        setDBContextAsync(context, name, version, null, listener);
+    }
+
+    /**
+     * Initialize DBHandler with connection settings on a background thread,
+     * see {@link #setDBContextAsync(Context, String, int, OnOpenListener)}
+     *
+     * @param config {@link DbConfig}, e.g. {@link DbConfig#readHeavy()}
+     * */
+    protected void setDBContextAsync(@NonNull final Context context, @NonNull final String name,
+                                     final int version, @Nullable final DbConfig config,
+                                     @Nullable final OnOpenListener listener) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        openException = null;
+        openLatch = latch;
+        openThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RuntimeException exception = null;
+                try {
+                    clearSelectCache();
+                    dbHandler = new LeftDBHandler(context, name, version, LeftDBUtils.this, config);
+                    db = dbHandler.getWritableDatabase();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "setDBContextAsync", e);
+                    exception = e;
+                    openException = e;
+                } finally {
+                    latch.countDown();
+                }
+                if (listener != null) {
+                    final RuntimeException error = exception;
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (error == null) {
+                                listener.onOpen();
+                            } else {
+                                listener.onOpenError(error);
+                            }
+                        }
+                    });
+                }
+            }
+        }, "LeftDB open " + name);
+        openThread.start();
+    }
+
+    /**
+     * @return false while database is opened by {@link #setDBContextAsync}
+     * */
+    public boolean isOpened() {
+        CountDownLatch latch = openLatch;
+        return (latch == null || latch.getCount() == 0) && db != null;
+    }
+
+    /**
+     * Database for operations; waits until database is opened by {@link #setDBContextAsync}
+     *
+     * @throws IllegalStateException if database failed to open
+     * */
+    protected SQLiteDatabase database() {
+        CountDownLatch latch = openLatch;
+        if (latch != null && Thread.currentThread() != openThread) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (openException != null) {
+                throw new IllegalStateException("Database failed to open", openException);
+            }
+        }
+        return db;
+    }
+
+    public interface OnOpenListener {
+        void onOpen();
+        void onOpenError(@NonNull RuntimeException e);
+    }
+
+    /**
+     * Called while database is copied from assets on the first open,
+     * on the thread that opens database
+     *
+     * @param copied number of copied bytes
+     * @param total size of database or -1 if unknown
+     * */
+    @Override
+    public void onCopyProgress(long copied, long total) {
+    }
+
+    /**
+     * Assets database is copied to a temp file and attached while the version changes,
+     * so {@link #upgradeRows}, {@link #upgradeRowsPerTable} and {@link #upgradeRowsDelta}
+     * copy rows with INSERT ... SELECT. Override and return false for versions whose
+     * {@link #onUpgrade} or {@link #onDowngrade} doesn't copy rows from assets
+     * to skip the copy; rows are then copied one by one.
+     *
+     * @return true by default
+     * */
+    @Override
+    public boolean shouldAttachAsset(int oldVersion, int newVersion) {
+        return true;
+    }
+
     /**
      * If database file does not exist in assets folder this function will be called.
      * Here you have to create all table you need and fill them with default data
@@ -110,6 +401,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     @CallSuper
     public void onCreate(SQLiteDatabase db) {
         this.db = db;
+        clearSelectCache();
     }
 
     /**
@@ -119,7 +411,10 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * - {@link #createTable(SQLiteDatabase, Class)}
      * - {@link #createTables(SQLiteDatabase, List)}
      * - {@link #upgradeRows(SQLiteDatabase)}
+     * - {@link #migrateTable(SQLiteDatabase, Class)}
      * to change database.
+     * Foreign keys are off during upgrade and downgrade, so ON DELETE actions don't run;
+     * they are checked with PRAGMA foreign_key_check before the change is committed.
      *
      * @param db The database.
      * @param oldVersion The old database version.
@@ -129,6 +424,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     @CallSuper
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         this.db = db;
+        clearSelectCache();
     }
 
     /**
@@ -149,6 +445,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     @CallSuper
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         this.db = db;
+        clearSelectCache();
     }
 
     /**
@@ -173,6 +470,45 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * */
     protected abstract <T> T deserializeObject(String string, Class<T> tClass, Type genericType);
 
+    /**
+     * Serialization of the object for {@link ColumnDAO#blob()} columns.
+     * By default writes UTF-8 bytes of {@link #serializeObject(Object)},
+     * override to stream the object without intermediate string.
+     *
+     * @param object the object that should to be serialized.
+     * @param stream output for serialized object
+     *
+     * */
+    protected void serializeObject(@NonNull Object object, @NonNull OutputStream stream) throws IOException {
+        String string = serializeObject(object);
+        if (string == null) {
+            throw new IOException("Can't serialize " + object.getClass().getName());
+        }
+        stream.write(string.getBytes(UTF_8));
+    }
+
+    /**
+     * Deserialization of the object from {@link ColumnDAO#blob()} columns.
+     * By default reads bytes as UTF-8 string and calls {@link #deserializeObject(String, Class, Type)},
+     * override to read the object from stream without intermediate string.
+     *
+     * @param stream serialized object.
+     * @param tClass the class of the serialized object
+     * @param genericType the generic type of the serialized object
+     *
+     * @return the object
+     *
+     * */
+    protected <T> T deserializeObject(@NonNull InputStream stream, Class<T> tClass, Type genericType) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return deserializeObject(new String(bytes.toByteArray(), UTF_8), tClass, genericType);
+    }
+
     /**
      * To remove records with conditions
      *
@@ -184,7 +520,12 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * Rightutils compatibility
      * */
     public <T> int deleteWhere(@NonNull Class<T> type, @Nullable String where) {
-        return db.delete(getTableName(type), where, null);
+        String tableName = getTableName(type);
+        int count = database().delete(tableName, where, null);
+        if (count > 0) {
+            changeBus.report(tableName);
+        }
+        return count;
     }
 
     /**
@@ -197,7 +538,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * Rightutils compatibility
      * */
     public <T> int deleteAll(@NonNull Class<T> type) {
-        return db.delete(getTableName(type), null, null);
+        return deleteWhere(type, null);
     }
 
     /**
@@ -223,6 +564,11 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * @return true if row was deleted
      * */
     public boolean delete(@NonNull Object o) {
+        List<Field> primaryKeyFields = getPrimaryKeyFields(o.getClass());
+        if (primaryKeyFields.size() > 1 || isWithoutRowId(o.getClass())) {
+            // the key of WITHOUT ROWID table may be not a number and is not a rowid
+            return deleteByPrimaryKey(o, primaryKeyFields);
+        }
         String idFieldName = getIdFieldName(o.getClass());
         if (idFieldName == null) {
             return false;
@@ -250,10 +596,58 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
         if (idField == null || id == null) {
             return false;
         }
-        int count = deleteWhere(o.getClass(), String.format("%s=%d", getColumnName(idField), id));
+        String tableName = getTableName(o.getClass());
+        int count = database().delete(tableName, String.format("%s=%d", getColumnName(idField), id), null);
+        if (count > 0) {
+            if (idField.isAnnotationPresent(ColumnAutoInc.class)
+                    || idField.isAnnotationPresent(ColumnPrimaryKey.class)) {
+                changeBus.report(tableName, id);
+            } else {
+                changeBus.report(tableName);
+            }
+        }
+        return count > 0;
+    }
+
+    private boolean deleteByPrimaryKey(@NonNull Object o, @NonNull List<Field> primaryKeyFields) {
+        List<String> whereArgs = new ArrayList<>();
+        String where = primaryKeyWhere(o, primaryKeyFields, whereArgs);
+        if (where == null) {
+            return false;
+        }
+        String tableName = getTableName(o.getClass());
+        int count = database().delete(tableName, where,
+                whereArgs.toArray(new String[whereArgs.size()]));
+        if (count > 0) {
+            changeBus.report(tableName);
+        }
         return count > 0;
     }
 
+    /**
+     * Where clause that matches the row of the object by primary key
+     *
+     * @param whereArgs receives values of the primary key
+     *
+     * @return where clause or null if some of primary key values is null
+     * */
+    @Nullable
+    private String primaryKeyWhere(@NonNull Object o, @NonNull List<Field> primaryKeyFields,
+                                   @NonNull List<String> whereArgs) {
+        ContentValues values = new ContentValues();
+        List<String> where = new ArrayList<>();
+        for (Field field : primaryKeyFields) {
+            valueMapper(values, field, o);
+            Object value = values.get(getColumnName(field));
+            if (value == null) {
+                return null;
+            }
+            where.add(getColumnName(field) + " = ?");
+            whereArgs.add(String.valueOf(value));
+        }
+        return TextUtils.join(" AND ", where);
+    }
+
     /**
      * To remove collection of the rows
      *
@@ -266,6 +660,22 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
             return 0;
         }
         Class<?> clazz = null;
+        for (Object o : collection) {
+            if (o != null) {
+                clazz = o.getClass();
+                break;
+            }
+        }
+        // keys of composite primary key and WITHOUT ROWID tables may be not a number
+        if (clazz != null && (getPrimaryKeyFields(clazz).size() > 1 || isWithoutRowId(clazz))) {
+            int count = 0;
+            for (Object o : collection) {
+                if (o != null && delete(o)) {
+                    count++;
+                }
+            }
+            return count;
+        }
         String idFieldName = null;
         Field idField = null;
         List<Long> idList = new ArrayList<>();
@@ -274,7 +684,6 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
                 if (o != null) {
                     if (idFieldName == null) {
                         idFieldName = getIdFieldName(o.getClass());
-                        clazz = o.getClass();
                         if (idFieldName == null) {
                             break;
                         }
@@ -319,7 +728,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * */
     @Deprecated
     public int countResultsByQuery(@NonNull String query) {
-        Cursor cursor = db.rawQuery(query, null);
+        Cursor cursor = database().rawQuery(query, null);
         int count = 0;
         if (cursor.moveToFirst()) {
             count = cursor.getCount();
@@ -361,12 +770,30 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      *
      * @return count or rows
      * */
-    public int count(@NonNull CountQuery query) {
-        return count(
-                query.entity(),
-                query.where(),
-                query.whereArgs().toArray(new String[query.whereArgs().size()])
-        );
+    public int count(@NonNull final CountQuery query) {
+        if (isDeduplicated()) {
+            return (Integer) inFlightQueries.execute(query, new SingleFlight.Call<Object>() {
+                @Override
+                public Object call() {
+                    return countByQuery(query);
+                }
+            });
+        }
+        return countByQuery(query);
+    }
+
+    private int countByQuery(@NonNull CountQuery query) {
+        String sql = countSQL(query.entity(), query.where());
+        if (queryPlanAnalyzer != null) {
+            analyzeQueryPlan(query, sql, nullableArrayOfStrings(query.whereArgs()));
+        }
+        SQLiteStatement statement = database().compileStatement(sql);
+        try {
+            bindArgs(statement, 1, query.typedWhereArgs());
+            return (int) statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
     }
 
     /**
@@ -381,8 +808,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * @return count of rows
      * */
     public <T> int count(@NonNull Class<T> type, @Nullable String where, @Nullable String[] selectionArgs) {
-        Cursor cursor= db.rawQuery(String.format("SELECT COUNT (*) FROM %s", getTableName(type))
-                + (TextUtils.isEmpty(where) ? "" : " WHERE " + where), selectionArgs);
+        Cursor cursor= database().rawQuery(countSQL(type, where), selectionArgs);
         int count = 0;
         if (null != cursor) {
             if (cursor.getCount() > 0) {
@@ -433,119 +859,496 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     }
 
     /**
-     * Map results to the list with {@link SelectQuery}
+     * Execute sql query and map results to the type you need
      *
-     * @param query {@link SelectQuery}
+     * @param query the SQL query
+     * @param type the class to which you want to map result
+     * @param token {@link CancellationToken} to cancel the query
      *
      * @return list of mapped objects
+     *
+     * @throws QueryCanceledException if the query was canceled
      * */
-    @SuppressWarnings("unchecked")
     @NonNull
-    public <T> List<T> select(@NonNull SelectQuery query) {
-        try {
-            Class clazz = Class.forName(query.entity().getCanonicalName());
-            return queryListMapper(query, clazz);
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            return Collections.emptyList();
+    public <T> List<T> executeQuery(@NonNull String query, @NonNull Class<T> type,
+                                    @Nullable CancellationToken token) {
+        if (token == null) {
+            return queryListMapper(query, type);
         }
+        return queryListMapper(token.rawQuery(database(), query, null), type, token);
     }
 
     /**
-     * Retrieve everything from the table
-     *
-     * @param type the class of the table
+     * Prepare {@link SelectQuery} to run it many times with different arguments,
+     * see {@link PreparedSelect}
      *
-     * @return list of mapped objects
+     * @param query {@link SelectQuery}, its whereArgs are used when no arguments are passed
      *
-     * Rightutils compatibility
+     * @return {@link PreparedSelect}
      * */
     @NonNull
-    public <T> List<T> getAll(@NonNull Class<T> type) {
-        String query = String.format("select * from `%s`", getTableName(type));
-        return queryListMapper(query, type);
+    public <T> PreparedSelect<T> prepare(@NonNull SelectQuery query) {
+        return new PreparedSelect<>(this, query);
     }
 
     /**
-     * Retrieve from the table with limit
+     * Map results to the list with {@link SelectQuery}
      *
-     * @param type the class of the table
-     * @param limit maximum amount of rows to retrive
+     * @param query {@link SelectQuery}
      *
      * @return list of mapped objects
-     *
-     * Rightutils compatibility
      * */
     @NonNull
-    public <T> List<T> getAllLimited(@NonNull Class<T> type, long limit) {
-        String query = String.format("select * from `%s` limit %d", getTableName(type), limit);
-        return queryListMapper(query, type);
+    public <T> List<T> select(@NonNull SelectQuery query) {
+        return select(query, null);
     }
 
     /**
-     * Retrieve from the table with condition
+     * Map results to the list with {@link SelectQuery}
      *
-     * @param where sql condition
-     * @param type the class of the table
+     * @param query {@link SelectQuery}
+     * @param token {@link CancellationToken} to cancel the query
      *
      * @return list of mapped objects
      *
-     * Rightutils compatibility
+     * @throws QueryCanceledException if the query was canceled
      * */
+    @SuppressWarnings("unchecked")
     @NonNull
-    public <T> List<T> getAllWhere(@NonNull String where, @NonNull Class<T> type) {
-        String query = String.format("select * from `%s` where %s", getTableName(type), where);
-        return queryListMapper(query, type);
+    public <T> List<T> select(@NonNull final SelectQuery query, @Nullable CancellationToken token) {
+        if (token == null && isDeduplicated() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // rows are shared and entities are mapped for every caller, so lazy fields,
+            // dirty tracking and changes of one caller's entities don't affect the others
+            SharedRows rows = (SharedRows) inFlightQueries.execute(query, new SingleFlight.Call<Object>() {
+                @Override
+                public Object call() {
+                    return readRows(byQuery(query, null));
+                }
+            });
+            return queryListMapper(rows.cursor(), (Class<T>) query.entity());
+        }
+        return selectByQuery(query, token);
     }
 
-    /**
-     * Begins a transaction
-     *
-     * Here is the standard idiom for transactions:
-     *
-     * <pre>
-     *   db.beginTransaction();
-     *   try {
-     *     ...
-     *     db.setTransactionSuccessful();
-     *   } finally {
-     *     db.endTransaction();
-     *   }
-     * </pre>
-     * */
-    public void beginTransaction() {
-        isTransaction = true;
-        db.beginTransaction();
+    @NonNull
+    private SharedRows readRows(@NonNull Cursor cursor) {
+        try {
+            SharedRows rows = new SharedRows(cursor.getColumnNames(), cursor.getCount());
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[rows.columns.length];
+                for (int i = 0; i < values.length; i++) {
+                    switch (getType(cursor, i)) {
+                        case FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        case FIELD_TYPE_STRING:
+                            values[i] = cursor.getString(i);
+                            break;
+                        case FIELD_TYPE_BLOB:
+                            values[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            values[i] = null;
+                    }
+                }
+                rows.values.add(values);
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
-     * Marks the current transaction as successful
+     * Rows of a select query shared by concurrent callers, never modified after reading
      * */
-    public void setTransactionSuccessful() {
-        db.setTransactionSuccessful();
+    private static class SharedRows {
+        private final String[] columns;
+        private final List<Object[]> values;
+
+        private SharedRows(@NonNull String[] columns, int count) {
+            this.columns = columns;
+            this.values = new ArrayList<>(Math.max(count, 0));
+        }
+
+        @NonNull
+        private Cursor cursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, values.size());
+            for (Object[] row : values) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
     }
 
-    /**
-     * End a transaction. See beginTransaction for notes about how to use this and when transactions
-     * are committed and rolled back.
-     */
-    public void endTransaction() {
-        db.endTransaction();
-        isTransaction = false;
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private <T> List<T> selectByQuery(@NonNull SelectQuery query, @Nullable CancellationToken token) {
+        try {
+            Class clazz = Class.forName(query.entity().getCanonicalName());
+            return queryListMapper(query, clazz, token);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
     }
 
     /**
-     * Execute db operations with transaction on callback
+     * Full-text search in columns annotated with {@link FullTextSearch}
+     *
+     * @param query {@link SearchQuery}
+     *
+     * @return list of mapped objects ordered by rank, the best match is first
      * */
-    //TODO need test
-    public void executeTransaction(@NonNull Execute execute) {
-        executeTransaction(execute, null);
+    @SuppressWarnings("unchecked")
+    @NonNull
+    public <T> List<T> search(@NonNull SearchQuery query) {
+        Class<T> type = (Class<T>) query.entity();
+        List<Field> ftsFields = getFullTextSearchFields(type);
+        if (ftsFields.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Class '%s' has no fields annotated with @FullTextSearch.",
+                    type.getSimpleName()));
+        }
+        String ftsTable = getFullTextSearchTableName(query.table());
+        int phrases = getMatchPhraseCount(ftsTable, query.match());
+        if (phrases == 0) {
+            return Collections.emptyList();
+        }
+
+        // matchinfo holds the number of phrases, the number of columns and three
+        // 32-bit integers for every phrase and column, the first one is the number of
+        // hits in the row; rank is the sum of weights of columns over the phrases found
+        // in them, ties are ordered by the number of hits; rows are joined with the table,
+        // so full-text rows without a table row are dropped before paging
+        List<String> rank = new ArrayList<>();
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < ftsFields.size(); column++) {
+                int start = 1 + 8 * (2 + 3 * (phrase * ftsFields.size() + column));
+                rank.add(String.format(Locale.US, "%s * (substr(%s, %d, 8) <> '00000000')",
+                        ftsFields.get(column).getAnnotation(FullTextSearch.class).weight(),
+                        SEARCH_MATCHINFO_COLUMN, start));
+            }
+        }
+        String sql = String.format("SELECT %s FROM %s, (SELECT rowid AS %s, hex(matchinfo(%s)) AS %s, "
+                        + "length(offsets(%s)) - length(replace(offsets(%s), ' ', '')) AS %s "
+                        + "FROM %s WHERE %s MATCH ?1) WHERE %s.rowid = %s ORDER BY %s DESC, %s DESC, %s",
+                getSelectColumns(type), query.table(),
+                SEARCH_ROWID_COLUMN, ftsTable, SEARCH_MATCHINFO_COLUMN,
+                ftsTable, ftsTable, SEARCH_HITS_COLUMN, ftsTable, ftsTable,
+                query.table(), SEARCH_ROWID_COLUMN, TextUtils.join(" + ", rank), SEARCH_HITS_COLUMN,
+                SEARCH_ROWID_COLUMN);
+        if (query.limit() > 0 || query.offset() > 0) {
+            sql += String.format(Locale.US, " LIMIT %d OFFSET %d",
+                    query.limit() > 0 ? query.limit() : -1, query.offset());
+        }
+        return queryListMapper(database().rawQuery(sql, new String[] {query.match()}), type);
     }
 
     /**
-     * Execute db operations with transaction on callback
+     * @return the number of phrases in the full-text expression, 0 if no rows match
      * */
-    //TODO need test
+    private int getMatchPhraseCount(@NonNull String ftsTable, @NonNull String match) {
+        Cursor cursor = database().rawQuery(String.format("SELECT matchinfo(%s) FROM %s WHERE %s MATCH ? LIMIT 1",
+                ftsTable, ftsTable, ftsTable), new String[] {match});
+        try {
+            if (!cursor.moveToFirst()) {
+                return 0;
+            }
+            // integers of matchinfo are in the byte order of the machine
+            return ByteBuffer.wrap(cursor.getBlob(0)).order(ByteOrder.nativeOrder()).getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Enables deduplication of identical concurrent queries: while a
+     * {@link SelectQuery} or {@link CountQuery} is running, equal queries from
+     * other threads wait for it and receive the same rows instead of
+     * running their own. Every caller of {@link #select(SelectQuery)} gets its
+     * own list of entities mapped from the shared rows. Queries inside a
+     * transaction and queries with {@link CancellationToken} are never shared,
+     * select queries are not shared before Honeycomb.
+     * */
+    public void setQueryDeduplication(boolean enabled) {
+        if (enabled == isQueryDeduplication) {
+            return;
+        }
+        isQueryDeduplication = enabled;
+        if (enabled) {
+            changeBus.addListener(inFlightInvalidator);
+        } else {
+            changeBus.removeListener(inFlightInvalidator);
+            inFlightQueries.forgetAll();
+        }
+    }
+
+    private boolean isDeduplicated() {
+        return isQueryDeduplication && !database().inTransaction();
+    }
+
+    /**
+     * Run EXPLAIN QUERY PLAN for every distinct query built with
+     * {@link SelectQuery}, {@link CountQuery}, {@link DeleteQuery} or {@link UpdateQuery}.
+     * Intended for debug builds and tests.
+     *
+     * @param analyzer {@link QueryPlanAnalyzer} or null to disable analyzing
+     * */
+    public void setQueryPlanAnalyzer(@Nullable QueryPlanAnalyzer analyzer) {
+        queryPlanAnalyzer = analyzer;
+    }
+
+    /**
+     * Set codec for Serializable fields, {@link CompactBlobCodec} by default.
+     * Blobs written with Java serialization or {@link CompactBlobCodec} are always readable,
+     * so a custom codec must not write the header of {@link CompactBlobCodec}.
+     *
+     * @param codec {@link BlobCodec}
+     * */
+    public void setBlobCodec(@NonNull BlobCodec codec) {
+        blobCodec = codec;
+    }
+
+    @NonNull
+    private byte[] encodeBlob(@NonNull Object object) throws IOException {
+        try {
+            return blobCodec.encode(object);
+        } catch (IOException e) {
+            Log.w(TAG, "encodeBlob: " + e + ", fallback to Java serialization");
+            return javaBlobCodec.encode(object);
+        }
+    }
+
+    @Nullable
+    private Object decodeBlob(@NonNull byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            return null;
+        }
+        if (JavaBlobCodec.isJavaSerialized(bytes)) {
+            return javaBlobCodec.decode(bytes);
+        }
+        if (CompactBlobCodec.isCompact(bytes)) {
+            return compactBlobCodec.decode(bytes);
+        }
+        return blobCodec.decode(bytes);
+    }
+
+    /**
+     * Compress values of {@link ColumnDAO} and Serializable fields without
+     * {@link Compressed} annotation when they are at least minBytes long
+     *
+     * @param minBytes minimal size of value to compress or -1 to disable (default)
+     * */
+    public void setCompressionThreshold(int minBytes) {
+        compressionThreshold = minBytes;
+    }
+
+    private int getCompressionThreshold(@NonNull Field field) {
+        Compressed compressed = field.getAnnotation(Compressed.class);
+        return compressed != null ? compressed.minBytes() : compressionThreshold;
+    }
+
+    /**
+     * @return compressed bytes or null if value should be stored as is
+     * */
+    @Nullable
+    private byte[] compress(@NonNull Field field, @NonNull byte[] bytes) throws IOException {
+        // a value that starts with the marker of compressed values is always compressed,
+        // otherwise it would be decompressed on read
+        boolean marked = CompressUtils.isCompressed(bytes);
+        int threshold = getCompressionThreshold(field);
+        if (!marked && (threshold < 0 || bytes.length < threshold)) {
+            return null;
+        }
+        byte[] compressed = CompressUtils.compress(bytes);
+        return marked || compressed.length < bytes.length ? compressed : null;
+    }
+
+    void analyzeQueryPlan(@NonNull Object query, @NonNull String sql, @Nullable String[] selectionArgs) {
+        QueryPlanAnalyzer analyzer = queryPlanAnalyzer;
+        if (analyzer != null) {
+            analyzer.analyze(database(), query, sql, selectionArgs);
+        }
+    }
+
+    /**
+     * Retrieve everything from the table
+     *
+     * @param type the class of the table
+     *
+     * @return list of mapped objects
+     *
+     * Rightutils compatibility
+     * */
+    @NonNull
+    public <T> List<T> getAll(@NonNull Class<T> type) {
+        String query = getSelectSQL(type);
+        return queryListMapper(query, type);
+    }
+
+    /**
+     * Retrieve from the table with limit
+     *
+     * @param type the class of the table
+     * @param limit maximum amount of rows to retrive
+     *
+     * @return list of mapped objects
+     *
+     * Rightutils compatibility
+     * */
+    @NonNull
+    public <T> List<T> getAllLimited(@NonNull Class<T> type, long limit) {
+        String query = getSelectSQL(type) + " limit " + limit;
+        return queryListMapper(query, type);
+    }
+
+    /**
+     * Retrieve from the table with condition
+     *
+     * @param where sql condition
+     * @param type the class of the table
+     *
+     * @return list of mapped objects
+     *
+     * Rightutils compatibility
+     * */
+    @NonNull
+    public <T> List<T> getAllWhere(@NonNull String where, @NonNull Class<T> type) {
+        String query = getSelectSQL(type) + " where " + where;
+        return queryListMapper(query, type);
+    }
+
+    /**
+     * Load {@link LazyColumn} fields of the entity by its primary key
+     *
+     * @param entity the object that was retrieved from the database
+     * @param fieldNames names of the fields to load, all not loaded lazy fields if empty
+     *
+     * @return the same entity
+     * */
+    @NonNull
+    public <T> T loadLazy(@NonNull T entity, @NonNull String... fieldNames) {
+        Class<?> type = entity.getClass();
+        Set<String> unloaded = getUnloadedLazyFields(entity);
+        List<String> names = Arrays.asList(fieldNames);
+        List<Field> fields = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        for (Field field : getLazyFields(type)) {
+            if (names.isEmpty() ? unloaded.contains(field.getName()) : names.contains(field.getName())) {
+                fields.add(field);
+                columns.add(getColumnName(field));
+            }
+        }
+        if (fields.isEmpty()) {
+            return entity;
+        }
+        List<String> whereArgs = new ArrayList<>();
+        String where = primaryKeyWhere(entity, getPrimaryKeyFields(type), whereArgs);
+        if (where == null) {
+            throw new IllegalArgumentException(String.format("Primary key of '%s' is null.", type.getSimpleName()));
+        }
+        Cursor cursor = database().query(getTableName(type), columns.toArray(new String[columns.size()]),
+                where, whereArgs.toArray(new String[whereArgs.size()]), null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                for (Field field : fields) {
+                    fieldMapper(entity, cursor, field, getColumnName(field), type);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        synchronized (unloadedLazyFields) {
+            unloaded = unloadedLazyFields.get(entity);
+            if (unloaded != null) {
+                for (Field field : fields) {
+                    unloaded.remove(field.getName());
+                }
+                if (unloaded.isEmpty()) {
+                    unloadedLazyFields.remove(entity);
+                }
+            }
+        }
+        ContentValues snapshot = isDirtyTracking ? snapshots.get(entity) : null;
+        if (snapshot != null) {
+            for (Field field : fields) {
+                putValue(snapshot, field, entity);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * @param entity the object that was retrieved from the database
+     * @param fieldName name of {@link LazyColumn} field
+     *
+     * @return false if the lazy field has not been loaded yet
+     * */
+    public boolean isLoaded(@NonNull Object entity, @NonNull String fieldName) {
+        return !getUnloadedLazyFields(entity).contains(fieldName);
+    }
+
+    /**
+     * Begins a transaction
+     *
+     * Here is the standard idiom for transactions:
+     *
+     * <pre>
+     *   db.beginTransaction();
+     *   try {
+     *     ...
+     *     db.setTransactionSuccessful();
+     *   } finally {
+     *     db.endTransaction();
+     *   }
+     * </pre>
+     * */
+    public void beginTransaction() {
+        isTransaction = true;
+        database().beginTransaction();
+        changeBus.beginTransaction();
+    }
+
+    /**
+     * Marks the current transaction as successful
+     * */
+    public void setTransactionSuccessful() {
+        database().setTransactionSuccessful();
+        changeBus.setTransactionSuccessful();
+    }
+
+    /**
+     * End a transaction. See beginTransaction for notes about how to use this and when transactions
+     * are committed and rolled back.
+     *
+     * Changes collected by {@link ChangeBus} are published after a successful commit.
+     */
+    public void endTransaction() {
+        boolean ended = false;
+        try {
+            database().endTransaction();
+            ended = true;
+        } finally {
+            isTransaction = false;
+            changeBus.endTransaction(ended);
+        }
+    }
+
+    /**
+     * Execute db operations with transaction on callback
+     * */
+    //TODO need test
+    public void executeTransaction(@NonNull Execute execute) {
+        executeTransaction(execute, null);
+    }
+
+    /**
+     * Execute db operations with transaction on callback
+     * */
+    //TODO need test
     public void executeTransaction(@NonNull Execute execute,
                                    @Nullable OnException exceptionCallback) {
         beginTransaction();
@@ -581,8 +1384,10 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     public <T> int add(@NonNull List<T> elements, boolean useTransaction) {
         int count = 0;
         if (useTransaction && !isTransaction) {
+            boolean ended = false;
             try {
-                db.beginTransaction();
+                database().beginTransaction();
+                changeBus.beginTransaction();
                 for (T value : elements) {
                     if (value != null) {
                         long raw = add(value);
@@ -591,14 +1396,20 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
                         }
                     }
                 }
-                db.setTransactionSuccessful();
+                database().setTransactionSuccessful();
+                changeBus.setTransactionSuccessful();
             } catch (IncorrectAutoIncTypeException e) {
                 throw e;
             } catch (Exception e) {
                 count = -1;
                 Log.e(TAG, "add list, use transaction", e);
             } finally {
-                db.endTransaction();
+                try {
+                    database().endTransaction();
+                    ended = true;
+                } finally {
+                    changeBus.endTransaction(ended);
+                }
             }
         } else {
             for (T value : elements) {
@@ -638,12 +1449,16 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     public <T> long add(@NonNull final T element) {
         final ContentValues values = new ContentValues();
         boolean isColumnChild = false;
+        boolean isUnloaded = false;
         Field fieldAutoInc = null;
         List<Field> fields = getAllFields(element.getClass());
         for (Field value : fields) {
             if (!value.isAnnotationPresent(ColumnIgnore.class)
                     && !Modifier.isStatic(value.getModifiers())) {
-                if (value.isAnnotationPresent(ColumnAutoInc.class)) {
+                if (isUnloaded(element, value)) {
+                    // keep the stored value of not loaded lazy column
+                    isUnloaded = true;
+                } else if (value.isAnnotationPresent(ColumnAutoInc.class)) {
                     if (value.getType().isAssignableFrom(long.class) || value.getType().isAssignableFrom(Long.class)) {
                         valueAutoIncMapper(values, value, element);
                         fieldAutoInc = value;
@@ -663,25 +1478,37 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
         boolean isUpdate = false;
         if (fieldAutoInc != null) {
             try {
-                row = db.insertWithOnConflict(getTableName(element.getClass()),
+                row = database().insertWithOnConflict(getTableName(element.getClass()),
                         null, values, SQLiteDatabase.CONFLICT_FAIL);
             } catch (SQLiteConstraintException insertException) {
                 try {
                     String columnName = getColumnName(fieldAutoInc);
                     fieldAutoInc.setAccessible(true);
                     Long value = (Long) fieldAutoInc.get(element);
-                    db.update(getTableName(element.getClass()),
+                    int updated = database().update(getTableName(element.getClass()),
                             values, columnName + "=?", new String[]{String.valueOf(value)});
                     isUpdate = true;
+                    if (updated > 0) {
+                        changeBus.report(getTableName(element.getClass()), value);
+                    }
                 } catch (IllegalAccessException e) {
                     e.printStackTrace();
                 }
             }
+        } else if (isUnloaded) {
+            row = updateOrInsert(element, values);
         } else {
-            row = db.insertWithOnConflict(getTableName(element.getClass()),
+            row = database().insertWithOnConflict(getTableName(element.getClass()),
                     null, values, SQLiteDatabase.CONFLICT_REPLACE);
         }
         values.clear();
+        if (row != -1 && isWithoutRowId(element.getClass())) {
+            // there is no rowid, so the result is meaningless
+            row = 1;
+            changeBus.report(getTableName(element.getClass()));
+        } else if (row > 0) {
+            changeBus.report(getTableName(element.getClass()), row);
+        }
         if (row > 0 && fieldAutoInc != null) {
             try {
                 fieldAutoInc.setAccessible(true);
@@ -693,9 +1520,35 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
         if (isColumnChild) {
             addColumnChild(element, isUpdate);
         }
+        if (isDirtyTracking && row > 0) {
+            takeSnapshot(element);
+        }
         return row;
     }
 
+    /**
+     * Update the row by primary key without replacing it,
+     * so columns that are missing in values keep their data
+     * */
+    private long updateOrInsert(@NonNull Object element, @NonNull ContentValues values) {
+        String tableName = getTableName(element.getClass());
+        List<String> whereArgs = new ArrayList<>();
+        String where = primaryKeyWhere(element, getPrimaryKeyFields(element.getClass()), whereArgs);
+        String[] args = whereArgs.toArray(new String[whereArgs.size()]);
+        if (where != null && database().update(tableName, values, where, args) > 0) {
+            if (isWithoutRowId(element.getClass())) {
+                return 1;
+            }
+            Cursor cursor = database().query(tableName, new String[]{"rowid"}, where, args, null, null, null);
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : 1;
+            } finally {
+                cursor.close();
+            }
+        }
+        return database().insertWithOnConflict(tableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
     private <T> void addColumnChild(@NonNull final T element, boolean update) {
         List<Field> fields = getAllFields(element.getClass());
         for (Field value : fields) {
@@ -779,59 +1632,400 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * @return the row ID of the newly inserted row
      * */
     public int update(@NonNull UpdateQuery query, @NonNull ContentValues values) {
-        return db.update(
-                query.table(),
-                values,
-                nullableString(query.where()),
-                nullableArrayOfStrings(query.whereArgs()));
-    }
-
-    //INNER METHODS
-
-    private Cursor byQuery(@NonNull SelectQuery query) {
-        return db.query(
-                query.distinct(),
-                query.table(),
-                nullableArrayOfStrings(query.columns()),
-                nullableString(query.where()),
-                nullableArrayOfStrings(query.whereArgs()),
-                nullableString(query.groupBy()),
-                nullableString(query.having()),
-                nullableString(query.orderBy()),
-                nullableString(query.limit()));
+        if (values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+        StringBuilder sql = new StringBuilder("UPDATE ").append(query.table()).append(" SET ");
+        List<Object> args = new ArrayList<>();
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            sql.append(args.isEmpty() ? "" : ", ").append(value.getKey()).append(" = ?");
+            args.add(value.getValue());
+        }
+        if (!TextUtils.isEmpty(query.where())) {
+            sql.append(" WHERE ").append(query.where());
+        }
+        if (queryPlanAnalyzer != null) {
+            analyzeQueryPlan(query, sql.toString(), null);
+        }
+        args.addAll(query.typedWhereArgs());
+        int count = executeUpdateDelete(sql.toString(), args);
+        if (count > 0) {
+            changeBus.report(query.table());
+        }
+        return count;
     }
 
-    private int byQuery(@NonNull DeleteQuery query) {
-        return db.delete(
-                query.table(),
-                nullableString(query.where()),
-                nullableArrayOfStrings(query.whereArgs()));
+    /**
+     * Write fields of the entity to its row, found by primary key
+     *
+     * @param entity the object that was added to the database
+     * @param fields names of the fields to write; if empty, all fields are written or,
+     *     with {@link #setDirtyTracking(boolean)}, only fields changed since the entity
+     *     was retrieved or written
+     *
+     * @return the number of updated rows
+     *
+     * @throws IllegalArgumentException if the entity has no primary key or unknown field is passed
+     * */
+    public <T> int update(@NonNull T entity, @NonNull String... fields) {
+        return updateEntity(entity, fields, null);
     }
 
-    private <T> void valueAutoIncMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) {
-        field.setAccessible(true);
+    /**
+     * Write fields of the entities to their rows in one transaction,
+     * see {@link #update(Object, String...)}
+     *
+     * @param entities objects that were added to the database
+     * @param fields names of the fields to write
+     *
+     * @return the number of updated rows
+     * */
+    public <T> int update(@NonNull Collection<T> entities, @NonNull String... fields) {
+        int count = 0;
+        Map<String, SQLiteStatement> statements = new HashMap<>();
+        boolean useTransaction = !isTransaction;
+        boolean ended = false;
         try {
-            Long id = (Long) field.get(element);
-            if (id != null && id > 0) {
-                values.put(getColumnName(field), id);
+            if (useTransaction) {
+                database().beginTransaction();
+                changeBus.beginTransaction();
+            }
+            for (T entity : entities) {
+                if (entity != null) {
+                    count += updateEntity(entity, fields, statements);
+                }
+            }
+            if (useTransaction) {
+                database().setTransactionSuccessful();
+                changeBus.setTransactionSuccessful();
+            }
+        } finally {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            if (useTransaction) {
+                try {
+                    database().endTransaction();
+                    ended = true;
+                } finally {
+                    changeBus.endTransaction(ended);
+                }
             }
-        } catch (IllegalAccessException e) {
-            Log.e(TAG, "valueAutoIncMapper", e);
         }
+        return count;
     }
 
-    private <T> void valueDAOMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) {
-        field.setAccessible(true);
-        try {
-            values.put(getColumnName(field), field.get(element) != null ? serializeObject(field.get(element)) : null);
-        } catch (Exception e) {
-            Log.e(TAG, "valueDaoMapper", e);
-        }
+    /**
+     * Snapshot column values of retrieved entities, so {@link #update(Object, String...)}
+     * without fields writes changed columns only. Disabled by default, because
+     * every retrieved entity is serialized once more.
+     *
+     * @param enabled true to enable dirty tracking
+     * */
+    public void setDirtyTracking(boolean enabled) {
+        isDirtyTracking = enabled;
     }
 
+    /**
+     * @param statements compiled statements by SQL to reuse or null
+     * */
+    private int updateEntity(@NonNull Object entity, @NonNull String[] fieldNames,
+                             @Nullable Map<String, SQLiteStatement> statements) {
+        Class<?> type = entity.getClass();
+        String tableName = getTableName(type);
+        List<Field> primaryKeyFields = getPrimaryKeyFields(type);
+        if (primaryKeyFields.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Class '%s' has no primary key.", type.getSimpleName()));
+        }
+        ContentValues keyValues = new ContentValues();
+        for (Field field : primaryKeyFields) {
+            valueMapper(keyValues, field, entity);
+            if (keyValues.get(getColumnName(field)) == null) {
+                throw new IllegalArgumentException(String.format("Primary key of '%s' is null.", type.getSimpleName()));
+            }
+        }
 
-    private <T> void valueMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) {
-        field.setAccessible(true);
+        List<String> names = Arrays.asList(fieldNames);
+        Set<String> unknownNames = new HashSet<>(names);
+        ContentValues values = new ContentValues();
+        for (Field field : getColumnFields(type)) {
+            unknownNames.remove(field.getName());
+            if (isPrimaryKeyColumn(field) || (!names.isEmpty() && !names.contains(field.getName()))
+                    || isUnloaded(entity, field)) {
+                continue;
+            }
+            putValue(values, field, entity);
+        }
+        if (!unknownNames.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Class '%s' has no columns for fields %s.",
+                    type.getSimpleName(), unknownNames));
+        }
+        if (isDirtyTracking && names.isEmpty()) {
+            ContentValues snapshot = snapshots.get(entity);
+            if (snapshot != null) {
+                for (String key : new ArrayList<>(values.keySet())) {
+                    if (snapshot.containsKey(key) && isSameValue(snapshot.get(key), values.get(key))) {
+                        values.remove(key);
+                    }
+                }
+            }
+        }
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+        List<Object> args = new ArrayList<>();
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            sql.append(args.isEmpty() ? "" : ", ").append(value.getKey()).append(" = ?");
+            args.add(value.getValue());
+        }
+        sql.append(" WHERE ");
+        for (int i = 0; i < primaryKeyFields.size(); i++) {
+            String columnName = getColumnName(primaryKeyFields.get(i));
+            sql.append(i > 0 ? " AND " : "").append(columnName).append(" = ?");
+            args.add(keyValues.get(columnName));
+        }
+
+        int count;
+        if (statements != null) {
+            SQLiteStatement statement = statements.get(sql.toString());
+            if (statement == null) {
+                statement = database().compileStatement(sql.toString());
+                statements.put(sql.toString(), statement);
+            }
+            count = executeUpdateDelete(statement, args);
+        } else {
+            count = executeUpdateDelete(sql.toString(), args);
+        }
+        if (count > 0) {
+            Object key = keyValues.get(getColumnName(primaryKeyFields.get(0)));
+            if (primaryKeyFields.size() == 1 && key instanceof Long && !isWithoutRowId(type)) {
+                changeBus.report(tableName, (Long) key);
+            } else {
+                changeBus.report(tableName);
+            }
+            if (isDirtyTracking) {
+                ContentValues snapshot = snapshots.get(entity);
+                if (snapshot != null) {
+                    snapshot.putAll(values);
+                } else {
+                    takeSnapshot(entity);
+                }
+            }
+        }
+        return count;
+    }
+
+    //INNER METHODS
+
+    private void putValue(@NonNull ContentValues values, @NonNull Field field, @NonNull Object element) {
+        if (field.isAnnotationPresent(ColumnDAO.class)) {
+            valueDAOMapper(values, field, element);
+        } else {
+            valueMapper(values, field, element);
+        }
+    }
+
+    private void takeSnapshot(@NonNull Object entity) {
+        ContentValues snapshot = new ContentValues();
+        for (Field field : getColumnFields(entity.getClass())) {
+            if (!isPrimaryKeyColumn(field) && !isUnloaded(entity, field)) {
+                putValue(snapshot, field, entity);
+            }
+        }
+        snapshots.put(entity, snapshot);
+    }
+
+    private static boolean isSameValue(@Nullable Object a, @Nullable Object b) {
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private String countSQL(@NonNull Class<?> type, @Nullable String where) {
+        return String.format("SELECT COUNT (*) FROM %s", getTableName(type))
+                + (TextUtils.isEmpty(where) ? "" : " WHERE " + where);
+    }
+
+    private Cursor byQuery(@NonNull SelectQuery query) {
+        return byQuery(query, null);
+    }
+
+    private Cursor byQuery(@NonNull SelectQuery query, @Nullable CancellationToken token) {
+        String sql = selectSQL(query);
+        if (queryPlanAnalyzer != null) {
+            analyzeQueryPlan(query, sql, nullableArrayOfStrings(query.whereArgs()));
+        }
+        return typedQuery(sql, query.table(), query.typedWhereArgs(), token);
+    }
+
+    @NonNull
+    String selectSQL(@NonNull SelectQuery query) {
+        return selectSQL(query, query.limit());
+    }
+
+    /**
+     * @param limit LIMIT clause to use instead of the limit of the query
+     * */
+    @NonNull
+    String selectSQL(@NonNull SelectQuery query, @NonNull String limit) {
+        String[] columns = query.columns().isEmpty()
+                ? getSelectColumnArray(query.entity())
+                : nullableArrayOfStrings(query.columns());
+        return SQLiteQueryBuilder.buildQueryString(
+                query.distinct(),
+                query.table(),
+                columns,
+                nullableString(query.where()),
+                nullableString(query.groupBy()),
+                nullableString(query.having()),
+                nullableString(query.orderBy()),
+                nullableString(limit));
+    }
+
+    /**
+     * Run the query with arguments bound with their types
+     * */
+    @NonNull
+    Cursor typedQuery(@NonNull String sql, @NonNull String table, @NonNull List<Object> args,
+                      @Nullable CancellationToken token) {
+        BindingCursorFactory factory = new BindingCursorFactory(args);
+        if (token != null) {
+            return token.rawQueryWithFactory(database(), factory, sql, table);
+        }
+        return database().rawQueryWithFactory(factory, sql, null, table);
+    }
+
+    private int byQuery(@NonNull DeleteQuery query) {
+        String sql = "DELETE FROM " + query.table()
+                + (TextUtils.isEmpty(query.where()) ? "" : " WHERE " + query.where());
+        if (queryPlanAnalyzer != null) {
+            analyzeQueryPlan(query, sql, nullableArrayOfStrings(query.whereArgs()));
+        }
+        int count = executeUpdateDelete(sql, query.typedWhereArgs());
+        if (count > 0) {
+            changeBus.report(query.table());
+        }
+        return count;
+    }
+
+    private int executeUpdateDelete(@NonNull String sql, @NonNull List<Object> args) {
+        SQLiteStatement statement = database().compileStatement(sql);
+        try {
+            return executeUpdateDelete(statement, args);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int executeUpdateDelete(@NonNull SQLiteStatement statement, @NonNull List<Object> args) {
+        statement.clearBindings();
+        bindArgs(statement, 1, args);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return statement.executeUpdateDelete();
+        }
+        statement.execute();
+        return changes(database());
+    }
+
+    /**
+     * Bind arguments with their types, values that are not
+     * numbers, booleans, byte[] or null are bound as strings
+     *
+     * @param program compiled statement or query
+     * @param index index of the first argument, starting from 1
+     * @param args arguments to bind
+     * */
+    private static void bindArgs(@NonNull SQLiteProgram program, int index, @NonNull List<?> args) {
+        for (Object arg : args) {
+            if (arg == null) {
+                program.bindNull(index);
+            } else if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+                program.bindLong(index, ((Number) arg).longValue());
+            } else if (arg instanceof Double || arg instanceof Float) {
+                program.bindDouble(index, ((Number) arg).doubleValue());
+            } else if (arg instanceof Boolean) {
+                program.bindLong(index, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof byte[]) {
+                program.bindBlob(index, (byte[]) arg);
+            } else {
+                program.bindString(index, arg.toString());
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Binds typed arguments to the query before the cursor is created
+     * */
+    private static class BindingCursorFactory implements SQLiteDatabase.CursorFactory {
+        private final List<Object> args;
+
+        private BindingCursorFactory(@NonNull List<Object> args) {
+            this.args = args;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                String editTable, SQLiteQuery query) {
+            bindArgs(query, 1, args);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return new SQLiteCursor(masterQuery, editTable, query);
+            }
+            return new SQLiteCursor(db, masterQuery, editTable, query);
+        }
+    }
+
+    private <T> void valueAutoIncMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) {
+        field.setAccessible(true);
+        try {
+            Long id = (Long) field.get(element);
+            if (id != null && id > 0) {
+                values.put(getColumnName(field), id);
+            }
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "valueAutoIncMapper", e);
+        }
+    }
+
+    private <T> void valueDAOMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) {
+        field.setAccessible(true);
+        try {
+            if (field.getAnnotation(ColumnDAO.class).blob()) {
+                valueDAOBlobMapper(values, field, element);
+                return;
+            }
+            String value = field.get(element) != null ? serializeObject(field.get(element)) : null;
+            byte[] compressed = value != null ? compress(field, value.getBytes(UTF_8)) : null;
+            if (compressed != null) {
+                values.put(getColumnName(field), compressed);
+            } else {
+                values.put(getColumnName(field), value);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "valueDaoMapper", e);
+        }
+    }
+
+
+    private <T> void valueDAOBlobMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) throws IllegalAccessException, IOException {
+        Object value = field.get(element);
+        if (value == null) {
+            values.putNull(getColumnName(field));
+            return;
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+        serializeObject(value, stream);
+        byte[] bytes = stream.toByteArray();
+        byte[] compressed = compress(field, bytes);
+        values.put(getColumnName(field), compressed != null ? compressed : bytes);
+    }
+
+    private <T> void valueMapper(@NonNull ContentValues values, @NonNull Field field, @NonNull T element) {
+        field.setAccessible(true);
 		Class<?> fieldType = field.getType();
         try {
             if (fieldType.isAssignableFrom(String.class)) {
@@ -866,7 +2060,11 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
 				byte[] bytes = null;
                 if (field.get(element) != null) {
                     try {
-                        bytes = SerializeUtils.serialize(field.get(element));
+                        bytes = encodeBlob(field.get(element));
+                        byte[] compressed = compress(field, bytes);
+                        if (compressed != null) {
+                            bytes = compressed;
+                        }
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -886,27 +2084,45 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
 
     @NonNull
     private <T> List<T> queryListMapper(@Nullable Cursor cursor, @NonNull Class<T> type) {
+        return queryListMapper(cursor, type, null);
+    }
+
+    @NonNull
+    <T> List<T> queryListMapper(@Nullable Cursor cursor, @NonNull Class<T> type,
+                                @Nullable CancellationToken token) {
         List<T> results = new ArrayList<>();
         if (cursor == null || cursor.isClosed()) {
             return results;
         }
-        if (cursor.moveToFirst()) {
-            do {
-                results.add(cursorMapper(cursor, type));
-            } while (cursor.moveToNext());
+        try {
+            if (cursor.moveToFirst()) {
+                do {
+                    if (token != null) {
+                        token.throwIfCanceled();
+                    }
+                    results.add(cursorMapper(cursor, type));
+                } while (cursor.moveToNext());
+            }
+        } catch (RuntimeException e) {
+            if (token != null && token.isCanceled()) {
+                throw new QueryCanceledException("The query has been canceled");
+            }
+            throw e;
+        } finally {
+            cursor.close();
         }
-        cursor.close();
         return results;
     }
 
     @NonNull
     private <T> List<T> queryListMapper(@NonNull String query, @NonNull Class<T> type) {
-        return queryListMapper(db.rawQuery(query, null), type);
+        return queryListMapper(database().rawQuery(query, null), type);
     }
 
     @NonNull
-    private <T> List<T> queryListMapper(@NonNull SelectQuery query, @NonNull Class<T> type) {
-        return queryListMapper(byQuery(query), type);
+    private <T> List<T> queryListMapper(@NonNull SelectQuery query, @NonNull Class<T> type,
+                                        @Nullable CancellationToken token) {
+        return queryListMapper(byQuery(query, token), type, token);
     }
 
     private <T> T cursorMapper(@NonNull Cursor cursor, @NonNull Class<T> type) {
@@ -917,10 +2133,18 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
             for (Field field : fields) {
                 if (!field.isAnnotationPresent(ColumnIgnore.class)) {
                     if (!Modifier.isStatic(field.getModifiers())) {
+                        if (field.isAnnotationPresent(LazyColumn.class)
+                                && cursor.getColumnIndex(getColumnName(field)) < 0) {
+                            markUnloaded(result, field);
+                            continue;
+                        }
                         fieldMapper(result, cursor, field, getColumnName(field), type);
                     }
                 }
             }
+            if (isDirtyTracking) {
+                takeSnapshot(result);
+            }
         } catch (Exception e) {
             Log.e(TAG, "cursorMapper", e);
         }
@@ -963,14 +2187,30 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
 				c.setTimeInMillis(l);
 				field.set(result, c);
 			} else if (field.isAnnotationPresent(ColumnDAO.class)) {
-                String value = cursor.getString(cursor.getColumnIndex(columnName));
-                field.set(result, value != null ? deserializeObject(value, fieldType, field.getGenericType()) : null);
+                int index = cursor.getColumnIndex(columnName);
+                if (field.getAnnotation(ColumnDAO.class).blob() && isBlob(cursor, index)) {
+                    byte[] bytes = cursor.getBlob(index);
+                    InputStream stream = CompressUtils.isCompressed(bytes)
+                            ? CompressUtils.newInputStream(bytes) : new ByteArrayInputStream(bytes);
+                    try {
+                        field.set(result, deserializeObject(stream, fieldType, field.getGenericType()));
+                    } finally {
+                        // releases the native inflater of compressed values
+                        stream.close();
+                    }
+                } else {
+                    String value = getDAOString(cursor, index);
+                    field.set(result, value != null ? deserializeObject(value, fieldType, field.getGenericType()) : null);
+                }
             } else if (Serializable.class.isAssignableFrom(fieldType.getClass())) {
 				byte[] bytes = cursor.getBlob(cursor.getColumnIndex(columnName));
 				if (bytes == null) {
 					field.set(result, null);
 				} else {
-					field.set(result, SerializeUtils.deserialize(bytes));
+					if (CompressUtils.isCompressed(bytes)) {
+						bytes = CompressUtils.decompress(bytes);
+					}
+					field.set(result, decodeBlob(bytes));
 				}
 			} else {
                 Log.w(TAG, String.format("In class '%s' type '%s' of field '%s' not supported.", result.getClass().getSimpleName(), fieldType.toString(), field.getName()));
@@ -980,6 +2220,21 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
         }
     }
 
+    /**
+     * Read value of {@link ColumnDAO} column, compressed values are stored as BLOB
+     * */
+    @Nullable
+    private String getDAOString(@NonNull Cursor cursor, int index) throws IOException {
+        if (isBlob(cursor, index)) {
+            return new String(CompressUtils.decompress(cursor.getBlob(index)), UTF_8);
+        }
+        return cursor.getString(index);
+    }
+
+    private boolean isBlob(@NonNull Cursor cursor, int index) {
+        return getType(cursor, index) == FIELD_TYPE_BLOB;
+    }
+
     private <T> void childFieldMapper(@NonNull T result, @NonNull Cursor cursor, @NonNull Field field, @NonNull Class<?> fieldType, @NonNull Class<?> parentType) throws IllegalAccessException {
         String foreignKey = getForeignKeyColumnName(field);
         int columnIndex = cursor.getColumnIndex(getParentKeyColumnName(parentType, field));
@@ -1064,12 +2319,18 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     @NonNull
     private <T> String getTableName(@NonNull Class<T> type) {
         String tableName = type.getSimpleName();
-        if (type.isAnnotationPresent(TableName.class)) {
+        if (type.isAnnotationPresent(TableName.class)
+                && !TextUtils.isEmpty(type.getAnnotation(TableName.class).value())) {
             tableName = type.getAnnotation(TableName.class).value();
         }
         return tableName;
     }
 
+    private boolean isWithoutRowId(@NonNull Class<?> type) {
+        return type.isAnnotationPresent(TableName.class)
+                && type.getAnnotation(TableName.class).withoutRowId();
+    }
+
     @NonNull
     private String getColumnName(@NonNull Field field) {
         String columnName = field.getName();
@@ -1079,6 +2340,14 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
         return columnName;
     }
 
+    @NonNull
+    private Class<?> getChildType(@NonNull Field field) {
+        if (List.class.isAssignableFrom(field.getType())) {
+            return (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+        }
+        return field.getType();
+    }
+
     @NonNull
     private String getForeignKey(@NonNull Field field) {
         String columnName = field.getName();
@@ -1157,9 +2426,51 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * Rightutils compatibility
      * */
     public LeftDBHandler getDbHandler() {
+        database();
         return dbHandler;
     }
 
+    /**
+     * Write a consistent copy of the database to the file while database stays open.
+     * It uses VACUUM INTO if SQLite supports it (3.27+), that doesn't block writers
+     * in WAL mode; otherwise the rows are copied in one transaction and writers wait for it.
+     *
+     * @param file The file of the copy, it is replaced if exists
+     *
+     * @throws IOException if the copy can't be written
+     * @throws IllegalStateException if called inside a transaction
+     * */
+    public void snapshotTo(@NonNull File file) throws IOException {
+        snapshotTo(file, null);
+    }
+
+    /**
+     * Write a consistent copy of the database to the file, see {@link #snapshotTo(File)}
+     *
+     * @param file The file of the copy, it is replaced if exists
+     * @param progress {@link OnSnapshotProgress} called on the calling thread
+     * */
+    public void snapshotTo(@NonNull File file, @Nullable OnSnapshotProgress progress) throws IOException {
+        DbSnapshot.write(database(), file, progress);
+    }
+
+    public interface OnSnapshotProgress {
+        /**
+         * @param done number of copied steps (tables)
+         * @param total number of steps
+         * */
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * Bus that publishes changes made by write operations
+     * (add, delete, update, upgradeRows) once they are committed
+     * */
+    @NonNull
+    public ChangeBus getChangeBus() {
+        return changeBus;
+    }
+
     //SQL UTILS
 
     /**
@@ -1172,6 +2483,9 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
         for (Class<?> element : elements) {
             createTable(db, element);
         }
+        for (Class<?> element : elements) {
+            createChildIndices(db, element);
+        }
     }
 
     /**
@@ -1181,7 +2495,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * @param type The class of object that need to create
      * */
     protected void createTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type){
-        db.execSQL(createTableSQL(type));
+        createTable(db, type, (Collection<RelationshipConfig>) null);
     }
 
     /**
@@ -1192,11 +2506,14 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * @param relationship {@link RelationshipConfig}
      * */
     protected void createTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type, @Nullable RelationshipConfig relationship){
-        db.execSQL(createTableSQL(type, relationship));
+        createTable(db, type, relationship != null ? Collections.singletonList(relationship) : (Collection<RelationshipConfig>) null);
     }
 
     /**
-     * Create table in database with collection of relationship query builders
+     * Create table in database with collection of relationship query builders.
+     * Indices declared with {@link Index}, {@link Unique} and {@link Indices} are
+     * created too, as well as indices on foreign keys of relationships and
+     * {@link ColumnChild} tables that already exist.
      *
      * @param db The database.
      * @param type The class of object that need to create
@@ -1204,147 +2521,519 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * */
     protected void createTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships){
         db.execSQL(createTableSQL(type, relationships));
+        clearSelectCache();
+        createIndices(db, type, relationships);
+        createFullTextSearch(db, type);
     }
 
-    protected String createTableSQL(@NonNull Class<?> type) throws IllegalArgumentException {
-        return createTableSQL(type, (Collection<RelationshipConfig>) null);
-    }
-
-    protected String createTableSQL(@NonNull Class<?> type, @Nullable RelationshipConfig relationship) throws IllegalArgumentException {
-        return createTableSQL(type, relationship != null ? Collections.singletonList(relationship) : (Collection<RelationshipConfig>) null);
-    }
-
-    protected String createTableSQL(@NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) throws IllegalArgumentException {
-        StringBuilder sqlBuilder = new StringBuilder();
-        sqlBuilder.append("CREATE TABLE ");
-        sqlBuilder.append(getTableName(type));
-        sqlBuilder.append(" (");
-        int columnCount = 0;
-        List<Field> fields = getAllFields(type);
-        for (Field field : fields) {
-            if (!field.isAnnotationPresent(ColumnIgnore.class)
-                    && !field.isAnnotationPresent(ColumnChild.class)) {
-                String columnName = getColumnName(field);
-                if (!columnName.contains("$")) {
-                    StringBuilder builder = new StringBuilder();
-                    if (columnCount > 0) {
-                        builder.append(", ");
-                    }
+    /**
+     * Create full-text search table for columns annotated with {@link FullTextSearch}
+     * and triggers that keep it in sync with the table. Full-text search table
+     * is recreated and filled with rows of the table if its columns are changed.
+     *
+     * @param db The database.
+     * @param type The class of object
+     * */
+    private void createFullTextSearch(@NonNull SQLiteDatabase db, @NonNull Class<?> type) {
+        List<Field> ftsFields = getFullTextSearchFields(type);
+        if (ftsFields.isEmpty()) {
+            return;
+        }
+        String tableName = getTableName(type);
+        if (isWithoutRowId(type)) {
+            throw new IllegalArgumentException(String.format("Table '%s' is WITHOUT ROWID and "
+                    + "can't have @FullTextSearch columns.", tableName));
+        }
+        String ftsTable = getFullTextSearchTableName(tableName);
+        List<String> columns = new ArrayList<>();
+        List<String> newValues = new ArrayList<>();
+        Set<String> columnNames = new HashSet<>();
+        for (Field field : ftsFields) {
+            String columnName = getColumnName(field);
+            columns.add(columnName);
+            newValues.add("new." + columnName);
+            columnNames.add(columnName.toLowerCase(Locale.US));
+        }
+        String columnList = TextUtils.join(", ", columns);
 
-                    Class<?> fieldType = field.getType();
-                    if (fieldType.isAssignableFrom(String.class)) {
-                        builder.append(columnName);
-                        builder.append(" TEXT");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(long.class) || fieldType.isAssignableFrom(Long.class)) {
-                        builder.append(columnName);
-                        builder.append(" INTEGER");
-                        if (field.isAnnotationPresent(ColumnAutoInc.class)) {
-                            builder.append(" PRIMARY KEY AUTOINCREMENT");
-                        } else if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(int.class) || fieldType.isAssignableFrom(Integer.class)) {
-                        builder.append(columnName);
-                        builder.append(" INTEGER");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(short.class) || fieldType.isAssignableFrom(Short.class)) {
-                        builder.append(columnName);
-                        builder.append(" INTEGER");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(boolean.class) || fieldType.isAssignableFrom(Boolean.class)) {
-                        builder.append(columnName);
-                        builder.append(" INTEGER");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(float.class) || fieldType.isAssignableFrom(Float.class)) {
-                        builder.append(columnName);
-                        builder.append(" REAL");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(double.class) || fieldType.isAssignableFrom(Double.class)) {
-                        builder.append(columnName);
-                        builder.append(" REAL");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(BigDecimal.class)) {
-                        builder.append(columnName);
-                        builder.append(" TEXT");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(Date.class)) {
-                        builder.append(columnName);
-                        builder.append(" INTEGER");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (fieldType.isAssignableFrom(Calendar.class)) {
-                        builder.append(columnName);
-                        builder.append(" INTEGER");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (field.isAnnotationPresent(ColumnDAO.class)) {
-                        builder.append(columnName);
-                        builder.append(" TEXT");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    } else if (Serializable.class.isAssignableFrom(fieldType.getClass())) {
-                        builder.append(columnName);
-                        builder.append(" BLOB");
-                        if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
-                            builder.append(" PRIMARY KEY");
-                        }
-                    }
+        if (!isTableExists(db, ftsTable) || !getTableColumns(db, ftsTable).keySet().equals(columnNames)) {
+            db.execSQL(String.format("DROP TABLE IF EXISTS %s;", ftsTable));
+            for (String trigger : new String[] {"insert", "update", "delete", "replace"}) {
+                db.execSQL(String.format("DROP TRIGGER IF EXISTS %s_%s;", ftsTable, trigger));
+            }
+            // FTS4 is available since Honeycomb, FTS3 supports the same MATCH and matchinfo
+            db.execSQL(String.format("CREATE VIRTUAL TABLE %s USING %s(%s);", ftsTable,
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ? "fts4" : "fts3", columnList));
+            db.execSQL(String.format("INSERT INTO %s (rowid, %s) SELECT rowid, %s FROM %s;",
+                    ftsTable, columnList, columnList, tableName));
+        }
 
-                    if (builder.length() > 2) {
-                        sqlBuilder.append(builder);
-                        columnCount++;
-                    }
-                }
+        String insert = String.format("INSERT OR REPLACE INTO %s (rowid, %s) VALUES (new.rowid, %s);",
+                ftsTable, columnList, TextUtils.join(", ", newValues));
+        String delete = String.format("DELETE FROM %s WHERE rowid = old.rowid;", ftsTable);
+        db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s_insert AFTER INSERT ON %s BEGIN %s END;",
+                ftsTable, tableName, insert));
+        db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s_update AFTER UPDATE ON %s BEGIN %s %s END;",
+                ftsTable, tableName, delete, insert));
+        db.execSQL(String.format("CREATE TRIGGER IF NOT EXISTS %s_delete AFTER DELETE ON %s BEGIN %s END;",
+                ftsTable, tableName, delete));
+
+        // INSERT OR REPLACE deletes the conflicting row without delete triggers, while
+        // recursive triggers are off, and the new row may get another rowid
+        db.execSQL(String.format("DROP TRIGGER IF EXISTS %s_replace;", ftsTable));
+        List<String> keys = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        for (Field field : getPrimaryKeyFields(type)) {
+            primaryKey.add(getColumnName(field));
+        }
+        if (!primaryKey.isEmpty()) {
+            keys.add(uniqueKeyCondition(primaryKey.toArray(new String[primaryKey.size()])));
+        }
+        for (IndexInfo index : getIndices(type, null)) {
+            if (index.unique) {
+                keys.add(uniqueKeyCondition(index.columns));
             }
         }
-        if (columnCount == 0) {
-            throw new IllegalArgumentException("Cannot create a table without at least one column.");
+        if (!keys.isEmpty()) {
+            db.execSQL(String.format("CREATE TRIGGER %s_replace BEFORE INSERT ON %s BEGIN "
+                            + "DELETE FROM %s WHERE rowid IN (SELECT rowid FROM %s WHERE %s); END;",
+                    ftsTable, tableName, ftsTable, tableName, TextUtils.join(" OR ", keys)));
         }
-        if (relationships != null && !relationships.isEmpty()) {
-            for (RelationshipConfig config : relationships) {
-                sqlBuilder.append(
-                        String.format(", FOREIGN KEY (%s) REFERENCES %s (%s)",
-                                config.foreignKey(),
-                                config.parentTable(),
-                                config.parentKey()));
-                if (!TextUtils.isEmpty(config.onDelete())) {
-                    sqlBuilder.append(String.format(" ON DELETE %s", config.onDelete()));
-                }
-                if (!TextUtils.isEmpty(config.onUpdate())) {
-                    sqlBuilder.append(String.format(" ON UPDATE %s", config.onUpdate()));
+    }
+
+    private static String uniqueKeyCondition(@NonNull String[] columns) {
+        List<String> conditions = new ArrayList<>();
+        for (String column : columns) {
+            conditions.add(String.format("%s = new.%s", column, column));
+        }
+        return "(" + TextUtils.join(" AND ", conditions) + ")";
+    }
+
+    private List<Field> getFullTextSearchFields(@NonNull Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : getColumnFields(type)) {
+            if (field.isAnnotationPresent(FullTextSearch.class)) {
+                if (field.getType() != String.class) {
+                    throw new IllegalArgumentException(String.format("In class '%s' field '%s' annotated "
+                            + "with @FullTextSearch is not String.", type.getSimpleName(), field.getName()));
                 }
+                fields.add(field);
             }
         }
-        sqlBuilder.append(" );");
-        return sqlBuilder.toString();
+        return fields;
+    }
+
+    private String getFullTextSearchTableName(@NonNull String tableName) {
+        return String.format("%s_fts", tableName);
+    }
+
+    private void createIndices(@NonNull SQLiteDatabase db, @NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) {
+        for (String sql : createIndexSQL(type, relationships)) {
+            db.execSQL(sql);
+        }
+        createChildIndices(db, type);
     }
 
     /**
-     * Delete tables in database
+     * Create indices on foreign keys of {@link ColumnChild} tables that exist
      *
      * @param db The database.
-     * @param elements The list of the classes of objects that need to delete
+     * @param type The parent class
      * */
-    protected void deleteTables(@NonNull SQLiteDatabase db, @NonNull List<Class<?>> elements) {
-        for (Class<?> element : elements) {
+    private void createChildIndices(@NonNull SQLiteDatabase db, @NonNull Class<?> type) {
+        for (Field field : getAllFields(type)) {
+            if (field.isAnnotationPresent(ColumnChild.class)) {
+                String childTable = getTableName(getChildType(field));
+                if (isTableExists(db, childTable)) {
+                    try {
+                        db.execSQL(createIndexSQL(childTable, null, false,
+                                getForeignKeyColumnName(field)));
+                    } catch (SQLException e) {
+                        Log.w(TAG, "createChildIndices", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create index queries for the table of the type
+     *
+     * @param type The class of object
+     * @param relationships foreign keys of these relationships are indexed
+     *
+     * @return list of CREATE INDEX queries
+     * */
+    @NonNull
+    protected List<String> createIndexSQL(@NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) {
+        List<String> queries = new ArrayList<>();
+        for (IndexInfo index : getIndices(type, relationships)) {
+            queries.add(index.createSQL());
+        }
+        return queries;
+    }
+
+    @NonNull
+    private String createIndexSQL(@NonNull String tableName, @Nullable String name, boolean unique, @NonNull String... columns) {
+        return new IndexInfo(tableName, name, unique, columns).createSQL();
+    }
+
+    @NonNull
+    private List<IndexInfo> getIndices(@NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) {
+        String tableName = getTableName(type);
+        List<IndexInfo> indices = new ArrayList<>();
+        for (Field field : getAllFields(type)) {
+            if (field.isAnnotationPresent(ColumnIgnore.class)
+                    || field.isAnnotationPresent(ColumnChild.class)) {
+                continue;
+            }
+            if (field.isAnnotationPresent(Index.class)) {
+                Index index = field.getAnnotation(Index.class);
+                indices.add(new IndexInfo(tableName, index.name(), index.unique(), getColumnName(field)));
+            }
+            if (field.isAnnotationPresent(Unique.class)) {
+                indices.add(new IndexInfo(tableName, null, true, getColumnName(field)));
+            }
+        }
+        if (type.isAnnotationPresent(Indices.class)) {
+            for (Index index : type.getAnnotation(Indices.class).value()) {
+                if (index.columns().length == 0) {
+                    throw new IllegalArgumentException(String.format(
+                            "Index in '%s' must contain at least one column.", type.getSimpleName()));
+                }
+                indices.add(new IndexInfo(tableName, index.name(), index.unique(), index.columns()));
+            }
+        }
+        if (relationships != null) {
+            for (RelationshipConfig config : relationships) {
+                indices.add(new IndexInfo(tableName, null, false, config.foreignKey()));
+            }
+        }
+        return indices;
+    }
+
+    private static class IndexInfo {
+        private final String table;
+        private final String name;
+        private final boolean unique;
+        private final String[] columns;
+
+        private IndexInfo(@NonNull String table, @Nullable String name, boolean unique, @NonNull String... columns) {
+            this.table = table;
+            this.name = TextUtils.isEmpty(name)
+                    ? String.format("%s_%s_%s", unique ? "unique" : "index", table, TextUtils.join("_", columns))
+                    : name;
+            this.unique = unique;
+            this.columns = columns;
+        }
+
+        private String createSQL() {
+            return String.format("CREATE %sINDEX IF NOT EXISTS %s ON %s (%s);",
+                    unique ? "UNIQUE " : "", name, table, TextUtils.join(", ", columns));
+        }
+    }
+
+    protected String createTableSQL(@NonNull Class<?> type) throws IllegalArgumentException {
+        return createTableSQL(type, (Collection<RelationshipConfig>) null);
+    }
+
+    protected String createTableSQL(@NonNull Class<?> type, @Nullable RelationshipConfig relationship) throws IllegalArgumentException {
+        return createTableSQL(type, relationship != null ? Collections.singletonList(relationship) : (Collection<RelationshipConfig>) null);
+    }
+
+    protected String createTableSQL(@NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) throws IllegalArgumentException {
+        return createTableSQL(getTableName(type), type, relationships);
+    }
+
+    private String createTableSQL(@NonNull String tableName, @NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) throws IllegalArgumentException {
+        StringBuilder sqlBuilder = new StringBuilder();
+        sqlBuilder.append("CREATE TABLE ");
+        sqlBuilder.append(tableName);
+        sqlBuilder.append(" (");
+        int columnCount = 0;
+        List<Field> primaryKeyFields = getPrimaryKeyFields(type);
+        boolean isCompositeKey = primaryKeyFields.size() > 1;
+        for (Field field : getColumnFields(type)) {
+            String definition = getColumnDefinition(field, !isCompositeKey);
+            if (definition != null) {
+                if (columnCount > 0) {
+                    sqlBuilder.append(", ");
+                }
+                sqlBuilder.append(definition);
+                columnCount++;
+            }
+        }
+        if (columnCount == 0) {
+            throw new IllegalArgumentException("Cannot create a table without at least one column.");
+        }
+        if (isCompositeKey) {
+            List<String> keys = new ArrayList<>();
+            for (Field field : primaryKeyFields) {
+                if (isAutoIncColumn(field)) {
+                    throw new IllegalArgumentException("Autoincrement field can't be a part of composite primary key.");
+                }
+                keys.add(getColumnName(field));
+            }
+            sqlBuilder.append(String.format(", PRIMARY KEY (%s)", TextUtils.join(", ", keys)));
+        }
+        if (relationships != null && !relationships.isEmpty()) {
+            for (RelationshipConfig config : relationships) {
+                sqlBuilder.append(
+                        String.format(", FOREIGN KEY (%s) REFERENCES %s (%s)",
+                                config.foreignKey(),
+                                config.parentTable(),
+                                config.parentKey()));
+                if (!TextUtils.isEmpty(config.onDelete())) {
+                    sqlBuilder.append(String.format(" ON DELETE %s", config.onDelete()));
+                }
+                if (!TextUtils.isEmpty(config.onUpdate())) {
+                    sqlBuilder.append(String.format(" ON UPDATE %s", config.onUpdate()));
+                }
+            }
+        }
+        sqlBuilder.append(" )");
+        if (isWithoutRowId(type)) {
+            if (primaryKeyFields.isEmpty()) {
+                throw new IllegalArgumentException("WITHOUT ROWID table must have a primary key.");
+            }
+            for (Field field : primaryKeyFields) {
+                if (isAutoIncColumn(field)) {
+                    throw new IllegalArgumentException("WITHOUT ROWID table can't have autoincrement field.");
+                }
+            }
+            sqlBuilder.append(" WITHOUT ROWID");
+        }
+        sqlBuilder.append(";");
+        return sqlBuilder.toString();
+    }
+
+    /**
+     * Fields that are stored in the columns of the table
+     * */
+    @NonNull
+    private List<Field> getColumnFields(@NonNull Class<?> type) {
+        List<Field> columnFields = new ArrayList<>();
+        for (Field field : getAllFields(type)) {
+            if (!field.isAnnotationPresent(ColumnIgnore.class)
+                    && !field.isAnnotationPresent(ColumnChild.class)
+                    && !getColumnName(field).contains("$")
+                    && getColumnType(field) != null) {
+                columnFields.add(field);
+            }
+        }
+        return columnFields;
+    }
+
+    @Nullable
+    private String getColumnType(@NonNull Field field) {
+        Class<?> fieldType = field.getType();
+        if (fieldType.isAssignableFrom(String.class)) {
+            return "TEXT";
+        } else if (fieldType.isAssignableFrom(long.class) || fieldType.isAssignableFrom(Long.class)) {
+            return "INTEGER";
+        } else if (fieldType.isAssignableFrom(int.class) || fieldType.isAssignableFrom(Integer.class)) {
+            return "INTEGER";
+        } else if (fieldType.isAssignableFrom(short.class) || fieldType.isAssignableFrom(Short.class)) {
+            return "INTEGER";
+        } else if (fieldType.isAssignableFrom(boolean.class) || fieldType.isAssignableFrom(Boolean.class)) {
+            return "INTEGER";
+        } else if (fieldType.isAssignableFrom(float.class) || fieldType.isAssignableFrom(Float.class)) {
+            return "REAL";
+        } else if (fieldType.isAssignableFrom(double.class) || fieldType.isAssignableFrom(Double.class)) {
+            return "REAL";
+        } else if (fieldType.isAssignableFrom(BigDecimal.class)) {
+            return "TEXT";
+        } else if (fieldType.isAssignableFrom(Date.class)) {
+            return "INTEGER";
+        } else if (fieldType.isAssignableFrom(Calendar.class)) {
+            return "INTEGER";
+        } else if (field.isAnnotationPresent(ColumnDAO.class)) {
+            return field.getAnnotation(ColumnDAO.class).blob() ? "BLOB" : "TEXT";
+        } else if (Serializable.class.isAssignableFrom(fieldType.getClass())) {
+            return "BLOB";
+        }
+        return null;
+    }
+
+    private boolean isAutoIncColumn(@NonNull Field field) {
+        return field.isAnnotationPresent(ColumnAutoInc.class)
+                && (field.getType().isAssignableFrom(long.class) || field.getType().isAssignableFrom(Long.class));
+    }
+
+    private boolean isPrimaryKeyColumn(@NonNull Field field) {
+        return isAutoIncColumn(field) || field.isAnnotationPresent(ColumnPrimaryKey.class);
+    }
+
+    /**
+     * Fields of the primary key; more than one for composite key
+     * */
+    @NonNull
+    private List<Field> getPrimaryKeyFields(@NonNull Class<?> type) {
+        List<Field> primaryKeyFields = new ArrayList<>();
+        for (Field field : getColumnFields(type)) {
+            if (isPrimaryKeyColumn(field)) {
+                primaryKeyFields.add(field);
+            }
+        }
+        return primaryKeyFields;
+    }
+
+    /**
+     * {@link LazyColumn} fields; empty for tables without primary key
+     * */
+    @NonNull
+    private List<Field> getLazyFields(@NonNull Class<?> type) {
+        List<Field> lazyFields = new ArrayList<>();
+        List<Field> columnFields = getColumnFields(type);
+        for (Field field : columnFields) {
+            if (field.isAnnotationPresent(LazyColumn.class) && !isPrimaryKeyColumn(field)) {
+                if (field.getType().isPrimitive()) {
+                    // unloaded value is null, a primitive field can't tell it from a loaded one
+                    throw new IllegalArgumentException(String.format("Lazy column '%s' of class '%s' "
+                            + "must have a reference type.", field.getName(), type.getSimpleName()));
+                }
+                lazyFields.add(field);
+            }
+        }
+        if (!lazyFields.isEmpty() && getPrimaryKeyFields(type).isEmpty()) {
+            lazyFields.clear();
+        }
+        return lazyFields;
+    }
+
+    /**
+     * Columns of the table that are mapped to the entity, without {@link LazyColumn} columns.
+     * Cached per class until the schema is changed through this class.
+     *
+     * @return array of columns or null to select all columns if the table doesn't exist
+     * */
+    @Nullable
+    private String[] getSelectColumnArray(@NonNull Class<?> type) {
+        String[] cached = selectColumnsCache.get(type);
+        if (cached != null) {
+            return cached.length > 0 ? cached : null;
+        }
+        Map<String, ColumnInfo> tableColumns = getTableColumns(database(), getTableName(type));
+        if (tableColumns.isEmpty()) {
+            return null;
+        }
+        List<Field> lazyFields = getLazyFields(type);
+        Set<String> columns = new LinkedHashSet<>();
+        for (Field field : getAllFields(type)) {
+            if (field.isAnnotationPresent(ColumnIgnore.class) || Modifier.isStatic(field.getModifiers())
+                    || lazyFields.contains(field)) {
+                continue;
+            }
+            String columnName = field.isAnnotationPresent(ColumnChild.class)
+                    ? getParentKeyColumnName(type, field)
+                    : getColumnName(field);
+            if (tableColumns.containsKey(columnName.toLowerCase(Locale.US))) {
+                columns.add(String.format("`%s`", columnName));
+            }
+        }
+        String[] result = columns.toArray(new String[columns.size()]);
+        selectColumnsCache.put(type, result);
+        return result.length > 0 ? result : null;
+    }
+
+    @NonNull
+    private String getSelectColumns(@NonNull Class<?> type) {
+        String[] columns = getSelectColumnArray(type);
+        return columns == null ? "*" : TextUtils.join(", ", columns);
+    }
+
+    @NonNull
+    private String getSelectSQL(@NonNull Class<?> type) {
+        String sql = selectSQLCache.get(type);
+        if (sql == null) {
+            String[] columns = getSelectColumnArray(type);
+            sql = String.format("select %s from `%s`",
+                    columns == null ? "*" : TextUtils.join(", ", columns), getTableName(type));
+            if (columns != null) {
+                selectSQLCache.put(type, sql);
+            }
+        }
+        return sql;
+    }
+
+    private void clearSelectCache() {
+        selectColumnsCache.clear();
+        selectSQLCache.clear();
+    }
+
+    private void markUnloaded(@NonNull Object entity, @NonNull Field field) {
+        synchronized (unloadedLazyFields) {
+            Set<String> unloaded = unloadedLazyFields.get(entity);
+            if (unloaded == null) {
+                unloaded = new HashSet<>();
+                unloadedLazyFields.put(entity, unloaded);
+            }
+            unloaded.add(field.getName());
+        }
+    }
+
+    @NonNull
+    private Set<String> getUnloadedLazyFields(@NonNull Object entity) {
+        synchronized (unloadedLazyFields) {
+            Set<String> unloaded = unloadedLazyFields.get(entity);
+            return unloaded == null ? Collections.<String>emptySet() : new HashSet<>(unloaded);
+        }
+    }
+
+    /**
+     * @return true if the lazy field has not been loaded and has not been set since
+     * */
+    private boolean isUnloaded(@NonNull Object entity, @NonNull Field field) {
+        if (!field.isAnnotationPresent(LazyColumn.class)) {
+            return false;
+        }
+        synchronized (unloadedLazyFields) {
+            Set<String> unloaded = unloadedLazyFields.get(entity);
+            if (unloaded == null || !unloaded.contains(field.getName())) {
+                return false;
+            }
+            try {
+                field.setAccessible(true);
+                if (field.get(entity) == null) {
+                    return true;
+                }
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "isUnloaded", e);
+            }
+            unloaded.remove(field.getName());
+            return false;
+        }
+    }
+
+    @Nullable
+    private String getColumnDefinition(@NonNull Field field, boolean inlinePrimaryKey) {
+        String columnType = getColumnType(field);
+        if (columnType == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append(getColumnName(field));
+        builder.append(" ");
+        builder.append(columnType);
+        if (!inlinePrimaryKey) {
+            return builder.toString();
+        }
+        if (isAutoIncColumn(field)) {
+            builder.append(" PRIMARY KEY AUTOINCREMENT");
+        } else if (field.isAnnotationPresent(ColumnPrimaryKey.class)) {
+            builder.append(" PRIMARY KEY");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Delete tables in database
+     *
+     * @param db The database.
+     * @param elements The list of the classes of objects that need to delete
+     * */
+    protected void deleteTables(@NonNull SQLiteDatabase db, @NonNull List<Class<?>> elements) {
+        for (Class<?> element : elements) {
             deleteTable(db, element);
         }
     }
@@ -1357,6 +3046,10 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
      * */
     protected void deleteTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type) {
         db.execSQL(deleteTableSQL(type));
+        clearSelectCache();
+        if (!getFullTextSearchFields(type).isEmpty()) {
+            db.execSQL(String.format("DROP TABLE IF EXISTS %s;", getFullTextSearchTableName(getTableName(type))));
+        }
     }
 
     private String deleteTableSQL(@NonNull Class<?> type) {
@@ -1376,13 +3069,7 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
             if (field.isAnnotationPresent(ColumnChild.class)) {
                 String foreignKey = getForeignKeyColumnName(field);
                 String parentKey = getParentKeyColumnName(type, field);
-                Class<?> fieldType;
-                if (List.class.isAssignableFrom(field.getType())) {
-                    ParameterizedType parameterizedType = (ParameterizedType) field.getGenericType();
-                    fieldType = (Class<?>) parameterizedType.getActualTypeArguments()[0];
-                } else {
-                    fieldType = field.getType();
-                }
+                Class<?> fieldType = getChildType(field);
                 String tableName = getTableName(fieldType);
                 String tempTableName = String.format("%s_temp", tableName);
                 db.execSQL(String.format("ALTER TABLE %s RENAME TO %s;", tableName, tempTableName));
@@ -1398,20 +3085,354 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
                 );
                 db.execSQL(String.format("INSERT INTO %s SELECT * FROM %s;", tableName, tempTableName));
                 db.execSQL(String.format("DROP TABLE %s;", tempTableName));
+                // indices and triggers have been moved to the temp table and dropped with it
+                createIndices(db, fieldType, null);
+                db.execSQL(String.format("DROP TABLE IF EXISTS %s;", getFullTextSearchTableName(tableName)));
+                createFullTextSearch(db, fieldType);
+                createChildIndices(db, type);
             }
         }
     }
 
+    /**
+     * Migrate tables to the current entity classes, see {@link #migrateTable(SQLiteDatabase, Class, Collection)}
+     *
+     * @param db The database.
+     * @param elements The list of the classes of objects that need to migrate
+     * */
+    protected void migrateTables(@NonNull SQLiteDatabase db, @NonNull List<Class<?>> elements) {
+        for (Class<?> element : elements) {
+            migrateTable(db, element);
+        }
+        for (Class<?> element : elements) {
+            createChildIndices(db, element);
+        }
+    }
+
+    /**
+     * Migrate table to the current entity class, see {@link #migrateTable(SQLiteDatabase, Class, Collection)}
+     *
+     * @param db The database.
+     * @param type The class of object that need to migrate
+     * */
+    protected void migrateTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type) {
+        migrateTable(db, type, (Collection<RelationshipConfig>) null);
+    }
+
+    /**
+     * Migrate table to the current entity class, see {@link #migrateTable(SQLiteDatabase, Class, Collection)}
+     *
+     * @param db The database.
+     * @param type The class of object that need to migrate
+     * @param relationship {@link RelationshipConfig}
+     * */
+    protected void migrateTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type, @Nullable RelationshipConfig relationship) {
+        migrateTable(db, type, relationship != null ? Collections.singletonList(relationship) : (Collection<RelationshipConfig>) null);
+    }
+
+    /**
+     * Migrate table to the current entity class. The table schema is compared with
+     * entity using PRAGMA table_info and index_list:
+     * - missing table is created;
+     * - new columns are added with ALTER TABLE ADD COLUMN;
+     * - missing or changed indices are created;
+     * - table is rebuilt (create, copy rows, drop, rename) only if type affinity
+     *   of a column, primary key or foreign keys have changed.
+     * Columns that were removed from the entity stay in the table.
+     *
+     * Table referenced by foreign keys of other tables can't be rebuilt inside
+     * a transaction started by the app, because dropping it deletes rows of the
+     * child tables. In {@link #onUpgrade} and {@link #onDowngrade} foreign keys
+     * are off, so it is rebuilt there.
+     *
+     * @param db The database.
+     * @param type The class of object that need to migrate
+     * @param relationships collection of {@link RelationshipConfig}
+     * */
+    protected void migrateTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type, @Nullable Collection<RelationshipConfig> relationships) {
+        clearSelectCache();
+        String tableName = getTableName(type);
+        if (!isTableExists(db, tableName)) {
+            createTable(db, type, relationships);
+            return;
+        }
+        Map<String, ColumnInfo> existingColumns = getTableColumns(db, tableName);
+        List<String> newColumns = new ArrayList<>();
+        List<String> commonColumns = new ArrayList<>();
+        Set<String> primaryKeys = new HashSet<>();
+        boolean rebuild = false;
+        for (Field field : getColumnFields(type)) {
+            String columnName = getColumnName(field);
+            ColumnInfo column = existingColumns.get(columnName.toLowerCase(Locale.US));
+            if (isPrimaryKeyColumn(field)) {
+                primaryKeys.add(columnName.toLowerCase(Locale.US));
+            }
+            if (column == null) {
+                if (isPrimaryKeyColumn(field)) {
+                    rebuild = true;
+                } else {
+                    newColumns.add(getColumnDefinition(field, true));
+                }
+            } else {
+                commonColumns.add(columnName);
+                if (!isSameAffinity(column.type, getColumnType(field))
+                        || column.primaryKey != isPrimaryKeyColumn(field)) {
+                    rebuild = true;
+                }
+            }
+        }
+        for (Map.Entry<String, ColumnInfo> column : existingColumns.entrySet()) {
+            if (column.getValue().primaryKey && !primaryKeys.contains(column.getKey())) {
+                rebuild = true;
+            }
+        }
+        if (!rebuild && relationships != null && !hasForeignKeys(db, tableName, relationships)) {
+            rebuild = true;
+        }
+        if (!rebuild && isWithoutRowId(type) != isWithoutRowIdTable(db, tableName)) {
+            rebuild = true;
+        }
+
+        if (rebuild) {
+            Log.i(TAG, String.format("rebuild table %s", tableName));
+            rebuildTable(db, type, relationships, commonColumns);
+        } else {
+            for (String definition : newColumns) {
+                db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s;", tableName, definition));
+            }
+            migrateIndices(db, type, relationships);
+            createFullTextSearch(db, type);
+        }
+    }
+
+    private void rebuildTable(@NonNull SQLiteDatabase db, @NonNull Class<?> type,
+                              @Nullable Collection<RelationshipConfig> relationships,
+                              @NonNull List<String> commonColumns) {
+        String tableName = getTableName(type);
+        String newTableName = String.format("%s_new", tableName);
+        boolean disableForeignKeys = isReferenced(db, tableName) && isForeignKeysEnabled(db);
+        if (disableForeignKeys) {
+            if (db.inTransaction()) {
+                throw new IllegalStateException(String.format("Table '%s' is referenced by foreign keys "
+                        + "and can't be rebuilt inside a transaction.", tableName));
+            }
+            db.execSQL("PRAGMA foreign_keys=OFF;");
+        }
+        db.beginTransaction();
+        try {
+            db.execSQL(String.format("DROP TABLE IF EXISTS %s;", newTableName));
+            db.execSQL(createTableSQL(newTableName, type, relationships));
+            if (!commonColumns.isEmpty()) {
+                String columns = TextUtils.join(", ", commonColumns);
+                db.execSQL(String.format("INSERT INTO %s (%s) SELECT %s FROM %s;",
+                        newTableName, columns, columns, tableName));
+            }
+            db.execSQL(String.format("DROP TABLE %s;", tableName));
+            db.execSQL(String.format("ALTER TABLE %s RENAME TO %s;", newTableName, tableName));
+            createIndices(db, type, relationships);
+            // rowids may have changed, so the full-text search table is filled again
+            db.execSQL(String.format("DROP TABLE IF EXISTS %s;", getFullTextSearchTableName(tableName)));
+            createFullTextSearch(db, type);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (disableForeignKeys) {
+                db.execSQL("PRAGMA foreign_keys=ON;");
+            }
+        }
+    }
+
+    private void migrateIndices(@NonNull SQLiteDatabase db, @NonNull Class<?> type,
+                                @Nullable Collection<RelationshipConfig> relationships) {
+        Map<String, Boolean> existingIndices = new HashMap<>();
+        Cursor cursor = db.rawQuery(String.format("PRAGMA index_list(%s)", getTableName(type)), null);
+        if (cursor.moveToFirst()) {
+            do {
+                existingIndices.put(
+                        cursor.getString(cursor.getColumnIndex("name")),
+                        cursor.getInt(cursor.getColumnIndex("unique")) == 1);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        for (IndexInfo index : getIndices(type, relationships)) {
+            Boolean unique = existingIndices.get(index.name);
+            if (unique != null && (unique != index.unique
+                    || !getIndexColumns(db, index.name).equals(Arrays.asList(index.columns)))) {
+                db.execSQL(String.format("DROP INDEX %s;", index.name));
+            }
+            db.execSQL(index.createSQL());
+        }
+        createChildIndices(db, type);
+    }
+
+    @NonNull
+    private List<String> getIndexColumns(@NonNull SQLiteDatabase db, @NonNull String indexName) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery(String.format("PRAGMA index_info(%s)", indexName), null);
+        if (cursor.moveToFirst()) {
+            do {
+                columns.add(cursor.getString(cursor.getColumnIndex("name")));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return columns;
+    }
+
+    @NonNull
+    private Map<String, ColumnInfo> getTableColumns(@NonNull SQLiteDatabase db, @NonNull String tableName) {
+        Map<String, ColumnInfo> columns = new LinkedHashMap<>();
+        Cursor cursor = db.rawQuery(String.format("PRAGMA table_info(%s)", tableName), null);
+        if (cursor.moveToFirst()) {
+            do {
+                ColumnInfo column = new ColumnInfo(
+                        cursor.getString(cursor.getColumnIndex("type")),
+                        cursor.getInt(cursor.getColumnIndex("pk")) > 0);
+                columns.put(cursor.getString(cursor.getColumnIndex("name")).toLowerCase(Locale.US), column);
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return columns;
+    }
+
+    private boolean hasForeignKeys(@NonNull SQLiteDatabase db, @NonNull String tableName,
+                                   @NonNull Collection<RelationshipConfig> relationships) {
+        List<String> existingKeys = new ArrayList<>();
+        Cursor cursor = db.rawQuery(String.format("PRAGMA foreign_key_list(%s)", tableName), null);
+        if (cursor.moveToFirst()) {
+            do {
+                existingKeys.add(String.format("%s|%s|%s|%s|%s",
+                        cursor.getString(cursor.getColumnIndex("from")),
+                        cursor.getString(cursor.getColumnIndex("table")),
+                        cursor.getString(cursor.getColumnIndex("to")),
+                        cursor.getString(cursor.getColumnIndex("on_delete")),
+                        cursor.getString(cursor.getColumnIndex("on_update"))).toLowerCase(Locale.US));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        if (existingKeys.size() != relationships.size()) {
+            return false;
+        }
+        for (RelationshipConfig config : relationships) {
+            String key = String.format("%s|%s|%s|%s|%s",
+                    config.foreignKey(),
+                    config.parentTable(),
+                    config.parentKey(),
+                    TextUtils.isEmpty(config.onDelete()) ? RelationshipConfig.NO_ACTION : config.onDelete(),
+                    TextUtils.isEmpty(config.onUpdate()) ? RelationshipConfig.NO_ACTION : config.onUpdate());
+            if (!existingKeys.contains(key.toLowerCase(Locale.US))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isReferenced(@NonNull SQLiteDatabase db, @NonNull String tableName) {
+        List<String> tablesNames = new ArrayList<>();
+        Cursor nameCursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+        if (nameCursor.moveToFirst()) {
+            do {
+                tablesNames.add(nameCursor.getString(0));
+            } while (nameCursor.moveToNext());
+        }
+        nameCursor.close();
+        for (String name : tablesNames) {
+            if (name.equalsIgnoreCase(tableName)) {
+                continue;
+            }
+            Cursor cursor = db.rawQuery(String.format("PRAGMA foreign_key_list(%s)", name), null);
+            boolean referenced = false;
+            if (cursor.moveToFirst()) {
+                do {
+                    if (tableName.equalsIgnoreCase(cursor.getString(cursor.getColumnIndex("table")))) {
+                        referenced = true;
+                    }
+                } while (!referenced && cursor.moveToNext());
+            }
+            cursor.close();
+            if (referenced) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Declared types are equal for migration if they have the same type affinity,
+     * e.g. VARCHAR(255) and TEXT; NUMERIC affinity (BOOLEAN, DATE) stores
+     * values like INTEGER affinity
+     * */
+    private static boolean isSameAffinity(@Nullable String declaredType, @Nullable String columnType) {
+        String affinity = getAffinity(declaredType);
+        String columnAffinity = getAffinity(columnType);
+        if (affinity.equals("NUMERIC")) {
+            affinity = "INTEGER";
+        }
+        if (columnAffinity.equals("NUMERIC")) {
+            columnAffinity = "INTEGER";
+        }
+        return affinity.equals(columnAffinity);
+    }
+
+    /**
+     * Type affinity of the declared type, see https://www.sqlite.org/datatype3.html
+     * */
+    @NonNull
+    private static String getAffinity(@Nullable String declaredType) {
+        String type = declaredType == null ? "" : declaredType.toUpperCase(Locale.US);
+        if (type.contains("INT")) {
+            return "INTEGER";
+        } else if (type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT")) {
+            return "TEXT";
+        } else if (type.contains("BLOB") || TextUtils.isEmpty(type)) {
+            return "BLOB";
+        } else if (type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB")) {
+            return "REAL";
+        }
+        return "NUMERIC";
+    }
+
+    private boolean isWithoutRowIdTable(@NonNull SQLiteDatabase db, @NonNull String tableName) {
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = ? AND name = ?",
+                new String[] {"table", tableName});
+        boolean withoutRowId = cursor.moveToFirst() && cursor.getString(0) != null
+                && cursor.getString(0).toUpperCase(Locale.US).matches("(?s).*WITHOUT\\s+ROWID\\s*$");
+        cursor.close();
+        return withoutRowId;
+    }
+
+    private boolean isForeignKeysEnabled(@NonNull SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA foreign_keys", null);
+        boolean enabled = cursor.moveToFirst() && cursor.getInt(0) == 1;
+        cursor.close();
+        return enabled;
+    }
+
+    private static class ColumnInfo {
+        private final String type;
+        private final boolean primaryKey;
+
+        private ColumnInfo(@Nullable String type, boolean primaryKey) {
+            this.type = type == null ? "" : type;
+            this.primaryKey = primaryKey;
+        }
+    }
+
     /**
      * Check is table exist in database
      *
      * @return true if table exist
      * */
     public boolean isTableExists(@NonNull Class<?> type) {
+        return isTableExists(database(), getTableName(type));
+    }
+
+    private boolean isTableExists(@NonNull SQLiteDatabase db, @NonNull String tableName) {
         Cursor cursor = db.rawQuery(
                 "SELECT COUNT(*) FROM sqlite_master WHERE type = ? AND name = ?",
-                new String[] {"table", getTableName(type)});
+                new String[] {"table", tableName});
         if (!cursor.moveToFirst()) {
+            cursor.close();
             return false;
         }
         int count = cursor.getInt(0);
@@ -1420,58 +3441,303 @@ public abstract class LeftDBUtils implements LeftDBHandler.OnDbChangeCallback {
     }
 
     /**
-     * Copy all rows from assets database to app database
+     * Copy all rows from assets database to app database, see {@link #upgradeRowsPerTable(SQLiteDatabase)}
      *
      * @param db The database.
      *
      * @return the number of copied rows OR -1 if any error
      * */
     protected int upgradeRows(SQLiteDatabase db) {
+        Map<String, Integer> counts = upgradeRowsPerTable(db);
+        if (counts == null) {
+            return -1;
+        }
         int count = 0;
+        for (Integer tableCount : counts.values()) {
+            count += tableCount;
+        }
+        return count;
+    }
+
+    /**
+     * Copy all rows from assets database to app database. Assets database is attached
+     * and rows are copied with INSERT OR REPLACE ... SELECT in one transaction, only
+     * columns that exist in both tables are copied. Tables that don't exist in app
+     * database are skipped. If the attached database is not available inside
+     * a transaction, rows are copied one by one with their storage classes; in
+     * {@link #onUpgrade} it is available unless {@link #shouldAttachAsset} returns false.
+     *
+     * @param db The database.
+     *
+     * @return the number of copied rows by table name OR null if any error
+     * */
+    @Nullable
+    protected Map<String, Integer> upgradeRowsPerTable(SQLiteDatabase db) {
+        return upgradeRowsFromAsset(db, -1);
+    }
+
+    /**
+     * Apply only rows that changed in assets database after the old version.
+     * Assets database has to contain table
+     * {@code leftdb_changes (version INTEGER, table_name TEXT, row_key)} with the
+     * primary key of every row inserted, updated or deleted in the version.
+     * Changed rows are copied from assets table, or deleted from app table if assets
+     * table does not contain them anymore. All rows are copied like in
+     * {@link #upgradeRowsPerTable(SQLiteDatabase)} if there is no change table,
+     * if it has no changes for the version after the old one, and for tables
+     * without single column primary key. In {@link #onUpgrade} it requires
+     * {@link #shouldAttachAsset} to return true, as it does by default.
+     *
+     * @param db The database.
+     * @param oldVersion The old database version.
+     *
+     * @return the number of inserted, updated and deleted rows by table name OR null if any error
+     * */
+    @Nullable
+    protected Map<String, Integer> upgradeRowsDelta(SQLiteDatabase db, int oldVersion) {
+        return upgradeRowsFromAsset(db, oldVersion);
+    }
 
+    @Nullable
+    private Map<String, Integer> upgradeRowsFromAsset(SQLiteDatabase db, int oldVersion) {
         if (dbHandler == null) {
-            return 0;
+            return Collections.emptyMap();
         }
-        LeftDBHandler tempDBHandler = new LeftDBHandler(dbHandler.getContext(), dbHandler.getName(), dbHandler.getVersion(), true);
-        SQLiteDatabase tempDb = tempDBHandler.getWritableDatabase();
+        LeftDBHandler tempDBHandler = null;
+        SQLiteDatabase connection = null;
+        if (!dbHandler.isAssetAttached()) {
+            if (db.inTransaction()) {
+                return upgradeRowsByValues(db);
+            }
+            tempDBHandler = new LeftDBHandler(dbHandler.getContext(), dbHandler.getName(), dbHandler.getVersion(), true);
+            if (!dbHandler.isMemory()) {
+                // ATTACH disables write-ahead logging of the connection, so rows are copied on a separate one
+                connection = LeftDBHandler.openConnection(db);
+                db = connection;
+            }
+            db.execSQL("ATTACH DATABASE ? AS " + LeftDBHandler.ASSET_SCHEMA, new Object[] {tempDBHandler.getDbPath()});
+        }
+
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        boolean transaction = !db.inTransaction();
+        if (transaction) {
+            db.beginTransaction();
+        }
+        try {
+            boolean delta = oldVersion >= 0 && hasAssetChanges(db, oldVersion);
+            for (String tableName : getUpgradeTableNames(db, LeftDBHandler.ASSET_SCHEMA + ".")) {
+                if (!isTableExists(db, tableName)) {
+                    continue;
+                }
+                Map<String, ColumnInfo> tableColumns = getTableColumns(db, tableName);
+                List<String> columns = new ArrayList<>();
+                Cursor columnsCursor = db.rawQuery(String.format("SELECT * FROM %s.%s LIMIT 0",
+                        LeftDBHandler.ASSET_SCHEMA, tableName), null);
+                for (String columnName : columnsCursor.getColumnNames()) {
+                    if (tableColumns.containsKey(columnName.toLowerCase(Locale.US))) {
+                        columns.add(columnName);
+                    }
+                }
+                columnsCursor.close();
+                if (columns.isEmpty()) {
+                    continue;
+                }
+                String primaryKey = delta ? getSinglePrimaryKey(tableColumns) : null;
+                if (primaryKey != null) {
+                    counts.put(tableName, applyAssetChanges(db, tableName, primaryKey, columns, oldVersion));
+                } else {
+                    String columnList = TextUtils.join(", ", columns);
+                    db.execSQL(String.format("INSERT OR REPLACE INTO main.%s (%s) SELECT %s FROM %s.%s;",
+                            tableName, columnList, columnList, LeftDBHandler.ASSET_SCHEMA, tableName));
+                    counts.put(tableName, changes(db));
+                }
+            }
+            if (transaction) {
+                db.setTransactionSuccessful();
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "upgradeRowsFromAsset", e);
+            counts = null;
+        } finally {
+            if (transaction) {
+                db.endTransaction();
+            }
+            if (tempDBHandler != null) {
+                db.execSQL("DETACH DATABASE " + LeftDBHandler.ASSET_SCHEMA);
+                tempDBHandler.deleteDataBase();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        if (counts != null) {
+            for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                if (count.getValue() > 0) {
+                    changeBus.report(count.getKey());
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return true if change table of assets database has changes
+     * of the version next to the old one, so no versions are missing
+     * */
+    private boolean hasAssetChanges(@NonNull SQLiteDatabase db, int oldVersion) {
+        Cursor cursor = db.rawQuery(String.format(
+                "SELECT COUNT(*) FROM %s.sqlite_master WHERE type = 'table' AND name = '%s'",
+                LeftDBHandler.ASSET_SCHEMA, ASSET_CHANGES_TABLE), null);
+        boolean exists = cursor.moveToFirst() && cursor.getInt(0) > 0;
+        cursor.close();
+        if (!exists) {
+            return false;
+        }
+        cursor = db.rawQuery(String.format("SELECT MIN(version) FROM %s.%s WHERE version > ?",
+                LeftDBHandler.ASSET_SCHEMA, ASSET_CHANGES_TABLE), new String[] {String.valueOf(oldVersion)});
+        boolean hasChanges = cursor.moveToFirst() && !cursor.isNull(0) && cursor.getInt(0) == oldVersion + 1;
+        cursor.close();
+        return hasChanges;
+    }
+
+    @Nullable
+    private String getSinglePrimaryKey(@NonNull Map<String, ColumnInfo> tableColumns) {
+        String primaryKey = null;
+        for (Map.Entry<String, ColumnInfo> column : tableColumns.entrySet()) {
+            if (column.getValue().primaryKey) {
+                if (primaryKey != null) {
+                    return null;
+                }
+                primaryKey = column.getKey();
+            }
+        }
+        return primaryKey;
+    }
+
+    private int applyAssetChanges(@NonNull SQLiteDatabase db, @NonNull String tableName,
+                                  @NonNull String primaryKey, @NonNull List<String> columns, int oldVersion) {
+        String changedKeys = String.format("SELECT row_key FROM %s.%s WHERE table_name = ? AND version > ?",
+                LeftDBHandler.ASSET_SCHEMA, ASSET_CHANGES_TABLE);
+        Object[] args = new Object[] {tableName, oldVersion};
+        db.execSQL(String.format("DELETE FROM main.%s WHERE %s IN (%s) AND NOT EXISTS "
+                        + "(SELECT 1 FROM %s.%s WHERE %s.%s.%s = main.%s.%s);",
+                tableName, primaryKey, changedKeys,
+                LeftDBHandler.ASSET_SCHEMA, tableName, LeftDBHandler.ASSET_SCHEMA, tableName, primaryKey,
+                tableName, primaryKey), args);
+        int count = changes(db);
+        String columnList = TextUtils.join(", ", columns);
+        db.execSQL(String.format("INSERT OR REPLACE INTO main.%s (%s) SELECT %s FROM %s.%s WHERE %s IN (%s);",
+                tableName, columnList, columnList, LeftDBHandler.ASSET_SCHEMA, tableName, primaryKey, changedKeys), args);
+        return count + changes(db);
+    }
+
+    private int changes(@NonNull SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT changes()", null);
+        int changes = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        return changes;
+    }
+
+    /**
+     * Names of tables to upgrade rows; sqlite_sequence, full-text search tables,
+     * that are filled by triggers, and their shadow tables are skipped
+     *
+     * @param schemaPrefix schema of the database with dot or empty string
+     * */
+    private List<String> getUpgradeTableNames(@NonNull SQLiteDatabase db, @NonNull String schemaPrefix) {
         List<String> tablesNames = new ArrayList<>();
-        Cursor nameCursor = tempDb.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+        List<String> virtualTablesNames = new ArrayList<>();
+        Cursor nameCursor = db.rawQuery(String.format("SELECT name, sql FROM %ssqlite_master WHERE type='table'",
+                schemaPrefix), null);
         if (nameCursor.moveToFirst()) {
             while (!nameCursor.isAfterLast()) {
-                tablesNames.add(nameCursor.getString(nameCursor.getColumnIndex("name")));
+                String name = nameCursor.getString(nameCursor.getColumnIndex("name"));
+                String sql = nameCursor.getString(nameCursor.getColumnIndex("sql"));
+                if (sql != null && sql.toUpperCase(Locale.US).startsWith("CREATE VIRTUAL TABLE")) {
+                    virtualTablesNames.add(name);
+                } else if (!name.equals("sqlite_sequence")) {
+                    tablesNames.add(name);
+                }
                 nameCursor.moveToNext();
             }
         }
         nameCursor.close();
+        for (String virtualTableName : virtualTablesNames) {
+            for (int i = tablesNames.size() - 1; i >= 0; i--) {
+                if (tablesNames.get(i).startsWith(virtualTableName + "_")) {
+                    tablesNames.remove(i);
+                }
+            }
+        }
+        return tablesNames;
+    }
+
+    /**
+     * Copy rows one by one from the temp copy of assets database
+     * */
+    @Nullable
+    private Map<String, Integer> upgradeRowsByValues(SQLiteDatabase db) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        LeftDBHandler tempDBHandler = new LeftDBHandler(dbHandler.getContext(), dbHandler.getName(), dbHandler.getVersion(), true);
+        SQLiteDatabase tempDb = tempDBHandler.getWritableDatabase();
 
         try {
-            for (String tableName : tablesNames) {
-                if (!tableName.equals("sqlite_sequence")) {
-                    Cursor queryCursor = tempDb.query(tableName, null, null, null, null, null, null);
-                    if (queryCursor.moveToFirst()) {
-                        while (!queryCursor.isAfterLast()) {
-                            ContentValues values = new ContentValues();
-                            for (String columnName : queryCursor.getColumnNames()) {
-                                int columnId = queryCursor.getColumnIndex(columnName);
-                                values.put(columnName, queryCursor.getString(columnId));
-                            }
-                            long row = db.insertWithOnConflict(tableName, null,
-                                    values, SQLiteDatabase.CONFLICT_REPLACE);
-                            if (row >= 0) {
-                                count++;
-                            }
-                            queryCursor.moveToNext();
+            for (String tableName : getUpgradeTableNames(tempDb, "")) {
+                if (!isTableExists(db, tableName)) {
+                    continue;
+                }
+                int tableCount = 0;
+                Cursor queryCursor = tempDb.query(tableName, null, null, null, null, null, null);
+                String[] columnNames = queryCursor.getColumnNames();
+                if (queryCursor.moveToFirst()) {
+                    while (!queryCursor.isAfterLast()) {
+                        ContentValues values = new ContentValues();
+                        for (int i = 0; i < columnNames.length; i++) {
+                            putCursorValue(values, columnNames[i], queryCursor, i);
                         }
+                        long row = db.insertWithOnConflict(tableName, null,
+                                values, SQLiteDatabase.CONFLICT_REPLACE);
+                        if (row >= 0) {
+                            tableCount++;
+                        }
+                        queryCursor.moveToNext();
                     }
-                    queryCursor.close();
+                }
+                queryCursor.close();
+                counts.put(tableName, tableCount);
+                if (tableCount > 0) {
+                    changeBus.report(tableName);
                 }
             }
         } catch (Exception e) {
-            count = -1;
+            counts = null;
         }
 
         tempDBHandler.deleteDataBase();
 
-        return count;
+        return counts;
+    }
+
+    /**
+     * Put the value with its storage class, so numbers and blobs are not stored as text
+     * */
+    private void putCursorValue(@NonNull ContentValues values, @NonNull String column,
+                                @NonNull Cursor cursor, int index) {
+        switch (getType(cursor, index)) {
+            case FIELD_TYPE_INTEGER:
+                values.put(column, cursor.getLong(index));
+                break;
+            case FIELD_TYPE_FLOAT:
+                values.put(column, cursor.getDouble(index));
+                break;
+            case FIELD_TYPE_BLOB:
+                values.put(column, cursor.getBlob(index));
+                break;
+            case FIELD_TYPE_STRING:
+                values.put(column, cursor.getString(index));
+                break;
+            default:
+                values.putNull(column);
+        }
     }
 }
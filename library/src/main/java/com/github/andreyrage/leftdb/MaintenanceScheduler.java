@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs database maintenance on a background thread when the database is idle:
+ * - PRAGMA incremental_vacuum, if database was created with
+ *   {@link com.github.andreyrage.leftdb.config.DbConfig#AUTO_VACUUM_INCREMENTAL};
+ * - ANALYZE, if the database has never been analyzed;
+ * - PRAGMA optimize (SQLite 3.18+, ignored by older versions).
+ *
+ * A run is scheduled after the idle delay since the last change published by
+ * {@link ChangeBus}. It stops vacuuming when the time budget is spent and skips
+ * ANALYZE and PRAGMA optimize if nothing is left of the budget, they run next time.
+ * PRAGMA analysis_limit (SQLite 3.32+) bounds the rows they read.
+ * <pre>
+ *   scheduler = new MaintenanceScheduler(dbHelper, listener);
+ *   scheduler.start();
+ * </pre>
+ * */
+public class MaintenanceScheduler {
+
+	private static final String TAG = MaintenanceScheduler.class.getName();
+
+	public static final long DEFAULT_IDLE_DELAY = 30 * 1000;
+	public static final long DEFAULT_TIME_BUDGET = 200;
+	private static final int PAGES_PER_STEP = 64;
+	private static final int ANALYSIS_LIMIT = 400;
+
+	private final LeftDBUtils dbUtils;
+	@Nullable private final Listener listener;
+	private final long idleDelay;
+	private final long timeBudget;
+
+	private HandlerThread thread;
+	private Handler handler;
+
+	private final Runnable maintenance = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				Result result = runMaintenance();
+				if (listener != null) {
+					listener.onMaintenance(result);
+				}
+			} catch (SQLException | IllegalStateException e) {
+				Log.w(TAG, "maintenance", e);
+			}
+		}
+	};
+
+	private final ChangeBus.Listener changeListener = new ChangeBus.Listener() {
+		@Override
+		public void onChange(@NonNull Set<String> tables, @NonNull Map<String, Set<Long>> rowIds) {
+			schedule();
+		}
+	};
+
+	public MaintenanceScheduler(@NonNull LeftDBUtils dbUtils, @Nullable Listener listener) {
+		this(dbUtils, listener, DEFAULT_IDLE_DELAY, DEFAULT_TIME_BUDGET);
+	}
+
+	/**
+	 * @param dbUtils database to maintain
+	 * @param listener receives result of every run on the maintenance thread
+	 * @param idleDelay milliseconds without changes before a run
+	 * @param timeBudget milliseconds a run may spend
+	 * */
+	public MaintenanceScheduler(@NonNull LeftDBUtils dbUtils, @Nullable Listener listener,
+								long idleDelay, long timeBudget) {
+		this.dbUtils = dbUtils;
+		this.listener = listener;
+		this.idleDelay = idleDelay;
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * Start listening to changes and schedule the first run
+	 * */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		thread = new HandlerThread("LeftDB maintenance", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+		dbUtils.getChangeBus().addListener(changeListener);
+		schedule();
+	}
+
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		dbUtils.getChangeBus().removeListener(changeListener);
+		handler.removeCallbacks(maintenance);
+		thread.quit();
+		thread = null;
+		handler = null;
+	}
+
+	private synchronized void schedule() {
+		if (handler != null) {
+			handler.removeCallbacks(maintenance);
+			handler.postDelayed(maintenance, idleDelay);
+		}
+	}
+
+	/**
+	 * Run maintenance on the calling thread
+	 * */
+	@WorkerThread
+	@NonNull
+	public Result runMaintenance() {
+		SQLiteDatabase db = dbUtils.database();
+		long start = SystemClock.elapsedRealtime();
+		long pageSize = pragma(db, "page_size");
+		long freePages = pragma(db, "freelist_count");
+
+		if (pragma(db, "auto_vacuum") == 2) {
+			long pages = freePages;
+			while (pages > 0 && SystemClock.elapsedRealtime() - start < timeBudget) {
+				// incremental_vacuum frees a page on every step, so all rows are read
+				Cursor cursor = db.rawQuery(String.format("PRAGMA incremental_vacuum(%d)", PAGES_PER_STEP), null);
+				cursor.getCount();
+				cursor.close();
+				long left = pragma(db, "freelist_count");
+				if (left >= pages) {
+					break;
+				}
+				pages = left;
+			}
+		}
+		long reclaimed = (freePages - pragma(db, "freelist_count")) * pageSize;
+
+		boolean analyzed = false;
+		if (SystemClock.elapsedRealtime() - start < timeBudget) {
+			// ignored by SQLite older than 3.32
+			pragma(db, "analysis_limit=" + ANALYSIS_LIMIT);
+			if (!isAnalyzed(db)) {
+				db.execSQL("ANALYZE");
+				analyzed = true;
+			}
+			Cursor cursor = db.rawQuery("PRAGMA optimize", null);
+			cursor.getCount();
+			cursor.close();
+		}
+
+		return new Result(Math.max(reclaimed, 0), analyzed, SystemClock.elapsedRealtime() - start);
+	}
+
+	private long pragma(@NonNull SQLiteDatabase db, @NonNull String name) {
+		Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+		long value = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		cursor.close();
+		return value;
+	}
+
+	private boolean isAnalyzed(@NonNull SQLiteDatabase db) {
+		Cursor cursor = db.rawQuery(
+				"SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'sqlite_stat1'", null);
+		boolean analyzed = cursor.moveToFirst() && cursor.getInt(0) > 0;
+		cursor.close();
+		return analyzed;
+	}
+
+	public interface Listener {
+		@WorkerThread
+		void onMaintenance(@NonNull Result result);
+	}
+
+	public static final class Result {
+		private final long reclaimedBytes;
+		private final boolean analyzed;
+		private final long duration;
+
+		private Result(long reclaimedBytes, boolean analyzed, long duration) {
+			this.reclaimedBytes = reclaimedBytes;
+			this.analyzed = analyzed;
+			this.duration = duration;
+		}
+
+		/**
+		 * Bytes returned to the file system by incremental vacuum
+		 * */
+		public long reclaimedBytes() {
+			return reclaimedBytes;
+		}
+
+		/**
+		 * True if ANALYZE was run
+		 * */
+		public boolean analyzed() {
+			return analyzed;
+		}
+
+		/**
+		 * Duration of the run in milliseconds
+		 * */
+		public long duration() {
+			return duration;
+		}
+
+		@Override
+		public String toString() {
+			return "Result{" +
+					"reclaimedBytes=" + reclaimedBytes +
+					", analyzed=" + analyzed +
+					", duration=" + duration +
+					'}';
+		}
+	}
+}
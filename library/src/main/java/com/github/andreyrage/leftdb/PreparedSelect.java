@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.andreyrage.leftdb.exceptions.QueryCanceledException;
+import com.github.andreyrage.leftdb.queries.SelectQuery;
+
+import java.util.List;
+
+import static com.github.andreyrage.leftdb.utils.CheckNullUtils.nullableArrayOfStrings;
+import static com.github.andreyrage.leftdb.utils.CheckNullUtils.unmodifiableListOfArgs;
+
+/**
+ * {@link SelectQuery} that is built once and executed many times with new arguments:
+ * <pre>
+ *   PreparedSelect&lt;Price&gt; price = SelectQuery.builder()
+ *           .entity(Price.class)
+ *           .where("product_id = ?")
+ *           .build()
+ *           .prepare(dbHelper);
+ *   for (LineItem item : items) {
+ *       item.setPrice(price.executeFirst(item.getProductId()));
+ *   }
+ * </pre>
+ * SQL and column list are built when the query is prepared, and the same SQL
+ * is reused on every execution, so the database connection finds the compiled
+ * statement in its statement cache. Arguments are bound with their types.
+ * Prepare the query again after the table has been changed with
+ * {@link LeftDBUtils#migrateTable} or {@link LeftDBUtils#createTable}.
+ * */
+public class PreparedSelect<T> {
+
+	private final LeftDBUtils dbUtils;
+	private final SelectQuery query;
+	private final Class<T> type;
+	private final String sql;
+	private final String firstSql;
+
+	@SuppressWarnings("unchecked")
+	PreparedSelect(@NonNull LeftDBUtils dbUtils, @NonNull SelectQuery query) {
+		this.dbUtils = dbUtils;
+		this.query = query;
+		this.type = (Class<T>) query.entity();
+		this.sql = dbUtils.selectSQL(query);
+		this.firstSql = dbUtils.selectSQL(query, firstLimit(query.limit()));
+		dbUtils.analyzeQueryPlan(query, sql, nullableArrayOfStrings(query.whereArgs()));
+	}
+
+	/**
+	 * @param args arguments for ?s in the where clause;
+	 *     whereArgs of the query are used if there are no arguments
+	 *
+	 * @return list of mapped objects
+	 * */
+	@NonNull
+	public List<T> execute(@Nullable Object... args) {
+		return execute(null, args);
+	}
+
+	/**
+	 * @param token {@link CancellationToken} to cancel the query
+	 * @param args arguments for ?s in the where clause;
+	 *     whereArgs of the query are used if there are no arguments
+	 *
+	 * @return list of mapped objects
+	 *
+	 * @throws QueryCanceledException if the query was canceled
+	 * */
+	@NonNull
+	public List<T> execute(@Nullable CancellationToken token, @Nullable Object... args) {
+		return dbUtils.queryListMapper(dbUtils.typedQuery(sql, query.table(), typedArgs(args), token), type, token);
+	}
+
+	/**
+	 * @param args arguments for ?s in the where clause;
+	 *     whereArgs of the query are used if there are no arguments
+	 *
+	 * @return the first mapped object or null
+	 * */
+	@Nullable
+	public T executeFirst(@Nullable Object... args) {
+		List<T> results = dbUtils.queryListMapper(
+				dbUtils.typedQuery(firstSql, query.table(), typedArgs(args), null), type, null);
+		return results.isEmpty() ? null : results.get(0);
+	}
+
+	@NonNull
+	public SelectQuery query() {
+		return query;
+	}
+
+	@NonNull
+	public String sql() {
+		return sql;
+	}
+
+	@NonNull
+	private List<Object> typedArgs(@Nullable Object[] args) {
+		return args == null || args.length == 0
+				? query.typedWhereArgs()
+				: unmodifiableListOfArgs(args);
+	}
+
+	/**
+	 * Limit of the query that reads one row, the offset of the query is kept
+	 * */
+	@NonNull
+	private static String firstLimit(@NonNull String limit) {
+		int comma = limit.indexOf(',');
+		return comma < 0 ? "1" : limit.substring(0, comma) + ", 1";
+	}
+}
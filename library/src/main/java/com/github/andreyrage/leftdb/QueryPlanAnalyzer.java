@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Debug tool that runs EXPLAIN QUERY PLAN once for every distinct query executed by
+ * {@link LeftDBUtils} (SelectQuery, CountQuery, DeleteQuery and UpdateQuery) and
+ * reports full table scans, temp b-trees and automatic indices.
+ *
+ * The plan is analyzed on the calling thread before the query runs,
+ * so use it in debug builds and tests only:
+ * <pre>
+ *   dbHelper.setQueryPlanAnalyzer(new QueryPlanAnalyzer(listener));
+ * </pre>
+ * */
+public class QueryPlanAnalyzer {
+
+	private static final String TAG = QueryPlanAnalyzer.class.getName();
+
+	private final Listener listener;
+	private final boolean reportAll;
+	private final Set<String> analyzed = Collections.synchronizedSet(new HashSet<String>());
+
+	/**
+	 * @param listener receives plans of queries that scan tables or use temp b-trees
+	 * */
+	public QueryPlanAnalyzer(@NonNull Listener listener) {
+		this(listener, false);
+	}
+
+	/**
+	 * @param listener receives plans of queries
+	 * @param reportAll if true, plans without any problems are reported too
+	 * */
+	public QueryPlanAnalyzer(@NonNull Listener listener, boolean reportAll) {
+		this.listener = listener;
+		this.reportAll = reportAll;
+	}
+
+	/**
+	 * Forget analyzed queries, so they will be analyzed again
+	 * */
+	public void reset() {
+		analyzed.clear();
+	}
+
+	void analyze(@NonNull SQLiteDatabase db, @NonNull Object query, @NonNull String sql,
+				 @Nullable String[] selectionArgs) {
+		if (!analyzed.add(sql)) {
+			return;
+		}
+		List<String> details = new ArrayList<>();
+		try {
+			Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+			int detailIndex = cursor.getColumnIndex("detail");
+			if (detailIndex >= 0 && cursor.moveToFirst()) {
+				do {
+					details.add(cursor.getString(detailIndex));
+				} while (cursor.moveToNext());
+			}
+			cursor.close();
+		} catch (SQLException e) {
+			Log.w(TAG, "analyze " + sql, e);
+			return;
+		}
+		QueryPlan plan = new QueryPlan(query, sql, details);
+		if (reportAll || plan.hasProblems()) {
+			listener.onQueryPlan(plan);
+		}
+	}
+
+	public interface Listener {
+		void onQueryPlan(@NonNull QueryPlan plan);
+	}
+
+	public static final class QueryPlan {
+
+		@NonNull private final Object query;
+		@NonNull private final String sql;
+		@NonNull private final List<String> details;
+		@NonNull private final List<String> scannedTables = new ArrayList<>();
+		private boolean usesTempBTree;
+		private boolean usesAutomaticIndex;
+
+		private QueryPlan(@NonNull Object query, @NonNull String sql, @NonNull List<String> details) {
+			this.query = query;
+			this.sql = sql;
+			this.details = Collections.unmodifiableList(details);
+			for (String detail : details) {
+				String upperDetail = detail.toUpperCase(Locale.US);
+				if (upperDetail.startsWith("SCAN ") && !upperDetail.contains("VIRTUAL TABLE")
+						&& !upperDetail.startsWith("SCAN SUBQUERY")
+						&& !upperDetail.startsWith("SCAN CONSTANT ROW")) {
+					String table = detail.substring("SCAN ".length());
+					if (table.toUpperCase(Locale.US).startsWith("TABLE ")) {
+						table = table.substring("TABLE ".length());
+					}
+					int end = table.indexOf(' ');
+					scannedTables.add(end > 0 ? table.substring(0, end) : table);
+				}
+				if (upperDetail.contains("TEMP B-TREE")) {
+					usesTempBTree = true;
+				}
+				if (upperDetail.contains("AUTOMATIC")) {
+					usesAutomaticIndex = true;
+				}
+			}
+		}
+
+		/**
+		 * @return {@link com.github.andreyrage.leftdb.queries.SelectQuery},
+		 * {@link com.github.andreyrage.leftdb.queries.CountQuery},
+		 * {@link com.github.andreyrage.leftdb.queries.DeleteQuery} or
+		 * {@link com.github.andreyrage.leftdb.queries.UpdateQuery}
+		 * */
+		@NonNull
+		public Object query() {
+			return query;
+		}
+
+		@NonNull
+		public String sql() {
+			return sql;
+		}
+
+		/**
+		 * Detail column of EXPLAIN QUERY PLAN
+		 * */
+		@NonNull
+		public List<String> details() {
+			return details;
+		}
+
+		/**
+		 * Tables that are read without index
+		 * */
+		@NonNull
+		public List<String> scannedTables() {
+			return Collections.unmodifiableList(scannedTables);
+		}
+
+		public boolean hasFullScan() {
+			return !scannedTables.isEmpty();
+		}
+
+		/**
+		 * True if ORDER BY, GROUP BY or DISTINCT need temp b-tree
+		 * */
+		public boolean usesTempBTree() {
+			return usesTempBTree;
+		}
+
+		/**
+		 * True if SQLite builds automatic index, that means index is missing
+		 * */
+		public boolean usesAutomaticIndex() {
+			return usesAutomaticIndex;
+		}
+
+		public boolean hasProblems() {
+			return hasFullScan() || usesTempBTree || usesAutomaticIndex;
+		}
+
+		@Override
+		public String toString() {
+			return "QueryPlan{" +
+					"query=" + query +
+					", sql='" + sql + '\'' +
+					", details=" + details +
+					'}';
+		}
+	}
+}
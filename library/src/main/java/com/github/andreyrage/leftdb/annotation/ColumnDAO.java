@@ -30,4 +30,10 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ColumnDAO {
 
+	/**
+	 * Store serialized object as BLOB written with
+	 * {@link com.github.andreyrage.leftdb.LeftDBUtils#serializeObject(Object, java.io.OutputStream)}
+	 * instead of TEXT
+	 * */
+	boolean blob() default false;
 }
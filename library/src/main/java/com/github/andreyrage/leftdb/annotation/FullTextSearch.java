@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indexes the annotated String column in a full-text search table {@code <table>_fts},
+ * that is kept in sync with the entity table by triggers.
+ * Use {@link com.github.andreyrage.leftdb.queries.SearchQuery} to search it.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FullTextSearch {
+	/**
+	 * Weight of the column in the rank of results, rank of a row is the sum
+	 * of weights of its columns over the query terms found in them
+	 * */
+	double weight() default 1.0;
+}
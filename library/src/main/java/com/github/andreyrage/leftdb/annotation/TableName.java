@@ -30,4 +30,11 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface TableName {
 	String value() default "";
+
+	/**
+	 * Create the table as WITHOUT ROWID clustered table, rows are stored in
+	 * primary key order. Table must have a primary key and can't have
+	 * {@link ColumnAutoInc} field. Supported by SQLite 3.8.2+ (Android 5.0+)
+	 * */
+	boolean withoutRowId() default false;
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.codec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Converts values of Serializable fields to BLOB columns and back,
+ * see {@link com.github.andreyrage.leftdb.LeftDBUtils#setBlobCodec(BlobCodec)}
+ * */
+public interface BlobCodec {
+
+	@NonNull
+	byte[] encode(@NonNull Object object) throws IOException;
+
+	@Nullable
+	Object decode(@NonNull byte[] bytes) throws IOException;
+}
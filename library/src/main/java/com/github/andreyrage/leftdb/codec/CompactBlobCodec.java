@@ -0,0 +1,615 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.codec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary format for values of Serializable fields.
+ *
+ * Blob starts with {@link #MAGIC} and {@link #VERSION}, followed by a tagged value.
+ * Numbers are written as varints, class and field names are written once per blob
+ * and referenced by index afterwards. Plain objects are written field by field
+ * (static and transient fields are skipped) and must have a no-arg constructor;
+ * fields that are missing in the class on decode are ignored, a field whose type
+ * doesn't accept the value fails decoding. Collections and maps are written
+ * element by element only if they are of a class that is fully restored by its
+ * no-arg constructor, see {@link #COLLECTIONS}. A value that references any other
+ * Serializable class, or references the same object twice, is embedded with Java
+ * serialization as a whole, so shared references and collection state are kept.
+ * */
+public class CompactBlobCodec implements BlobCodec {
+
+	public static final int MAGIC = 0x4C;
+	public static final int VERSION = 1;
+
+	private static final int NULL = 0;
+	private static final int BOOLEAN = 1;
+	private static final int BYTE = 2;
+	private static final int SHORT = 3;
+	private static final int CHAR = 4;
+	private static final int INT = 5;
+	private static final int LONG = 6;
+	private static final int FLOAT = 7;
+	private static final int DOUBLE = 8;
+	private static final int STRING = 9;
+	private static final int BYTES = 10;
+	private static final int ENUM = 11;
+	private static final int DATE = 12;
+	private static final int BIG_DECIMAL = 13;
+	private static final int ARRAY = 14;
+	private static final int LIST = 15;
+	private static final int SET = 16;
+	private static final int MAP = 17;
+	private static final int OBJECT = 18;
+	private static final int JAVA = 19;
+
+	private static final String UTF_8 = "UTF-8";
+	/**
+	 * Collection and map classes without state besides their elements
+	 * */
+	private static final Set<Class<?>> COLLECTIONS = new HashSet<Class<?>>(Arrays.asList(
+			ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class,
+			HashMap.class, LinkedHashMap.class));
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+	static {
+		for (Class<?> type : new Class<?>[]{boolean.class, byte.class, short.class, char.class,
+				int.class, long.class, float.class, double.class}) {
+			PRIMITIVES.put(type.getName(), type);
+		}
+	}
+
+	private final Map<Class<?>, List<Field>> fieldsCache = new ConcurrentHashMap<>();
+	private final Map<Class<?>, Boolean> plainCache = new ConcurrentHashMap<>();
+	private final JavaBlobCodec javaCodec = new JavaBlobCodec();
+
+	@NonNull
+	@Override
+	public byte[] encode(@NonNull Object object) throws IOException {
+		Writer writer = new Writer();
+		writer.out.write(MAGIC);
+		writer.out.write(VERSION);
+		if (isCompactGraph(object, new IdentityHashMap<Object, Boolean>())) {
+			writer.writeValue(object);
+		} else if (object instanceof Serializable) {
+			writer.writeJava(object);
+		} else {
+			throw new NotSerializableException(object.getClass().getName());
+		}
+		return writer.out.toByteArray();
+	}
+
+	@Nullable
+	@Override
+	public Object decode(@NonNull byte[] bytes) throws IOException {
+		if (!isCompact(bytes)) {
+			throw new StreamCorruptedException("Not a compact blob");
+		}
+		try {
+			return new Reader(bytes).readValue();
+		} catch (IndexOutOfBoundsException | ClassCastException e) {
+			throw new StreamCorruptedException(e.toString());
+		}
+	}
+
+	/**
+	 * @return true if bytes start with the header written by this codec
+	 * */
+	public static boolean isCompact(@NonNull byte[] bytes) {
+		return bytes.length >= 2 && (bytes[0] & 0xFF) == MAGIC && bytes[1] == VERSION;
+	}
+
+	/**
+	 * @return true if every object reachable from the value is written by the compact format
+	 * and mutable objects are reachable only once, so decoding doesn't lose sharing or state
+	 * */
+	private boolean isCompactGraph(Object value, Map<Object, Boolean> visited) throws IOException {
+		if (value == null || value instanceof Boolean || value instanceof Byte || value instanceof Short
+				|| value instanceof Character || value instanceof Integer || value instanceof Long
+				|| value instanceof Float || value instanceof Double || value instanceof String
+				|| value instanceof Enum || value.getClass() == BigDecimal.class) {
+			return true;
+		}
+		if (visited.put(value, Boolean.TRUE) != null) {
+			return false;
+		}
+		Class<?> type = value.getClass();
+		if (type == byte[].class || type == Date.class) {
+			return true;
+		} else if (type.isArray()) {
+			if (type.getComponentType().isPrimitive()) {
+				return true;
+			}
+			for (Object item : (Object[]) value) {
+				if (!isCompactGraph(item, visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (value instanceof Collection) {
+			if (!COLLECTIONS.contains(type)) {
+				return false;
+			}
+			for (Object item : (Collection<?>) value) {
+				if (!isCompactGraph(item, visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (value instanceof Map) {
+			if (!COLLECTIONS.contains(type)) {
+				return false;
+			}
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!isCompactGraph(entry.getKey(), visited) || !isCompactGraph(entry.getValue(), visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (isPlain(type)) {
+			for (Field field : getFields(type)) {
+				try {
+					if (!isCompactGraph(field.get(value), visited)) {
+						return false;
+					}
+				} catch (IllegalAccessException e) {
+					throw ioException(e);
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * IOException(Throwable) is not available before API 9
+	 * */
+	private static IOException ioException(Exception cause) {
+		IOException exception = new IOException(cause.toString());
+		exception.initCause(cause);
+		return exception;
+	}
+
+	private List<Field> getFields(Class<?> type) {
+		List<Field> fields = fieldsCache.get(type);
+		if (fields == null) {
+			fields = new ArrayList<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+							|| field.isSynthetic()) {
+						continue;
+					}
+					field.setAccessible(true);
+					fields.add(field);
+				}
+			}
+			fieldsCache.put(type, fields);
+		}
+		return fields;
+	}
+
+	private Field findField(Class<?> type, String name) {
+		for (Field field : getFields(type)) {
+			if (field.getName().equals(name)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if objects of the class can be written field by field
+	 * */
+	private boolean isPlain(Class<?> type) {
+		Boolean plain = plainCache.get(type);
+		if (plain == null) {
+			plain = checkPlain(type);
+			plainCache.put(type, plain);
+		}
+		return plain;
+	}
+
+	private static boolean checkPlain(Class<?> type) {
+		String name = type.getName();
+		if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("android.")
+				|| type.isAnonymousClass() || type.isLocalClass()
+				|| Externalizable.class.isAssignableFrom(type)
+				|| findConstructor(type) == null) {
+			return false;
+		}
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (String method : new String[]{"writeObject", "readObject", "writeReplace", "readResolve"}) {
+				if (hasMethod(c, method)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasMethod(Class<?> type, String name) {
+		for (java.lang.reflect.Method method : type.getDeclaredMethods()) {
+			if (method.getName().equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Constructor<?> findConstructor(Class<?> type) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			return null;
+		}
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Object newInstance(Class<?> type) {
+		Constructor<?> constructor = findConstructor(type);
+		if (constructor == null) {
+			return null;
+		}
+		try {
+			return constructor.newInstance();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private class Writer {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		private final Map<String, Integer> names = new HashMap<>();
+
+		private void writeValue(Object value) throws IOException {
+			if (value == null) {
+				out.write(NULL);
+			} else if (value instanceof Boolean) {
+				out.write(BOOLEAN);
+				out.write((Boolean) value ? 1 : 0);
+			} else if (value instanceof Byte) {
+				out.write(BYTE);
+				out.write((Byte) value);
+			} else if (value instanceof Short) {
+				out.write(SHORT);
+				writeSigned((Short) value);
+			} else if (value instanceof Character) {
+				out.write(CHAR);
+				writeUnsigned((Character) value);
+			} else if (value instanceof Integer) {
+				out.write(INT);
+				writeSigned((Integer) value);
+			} else if (value instanceof Long) {
+				out.write(LONG);
+				writeSigned((Long) value);
+			} else if (value instanceof Float) {
+				out.write(FLOAT);
+				writeFixed(Float.floatToIntBits((Float) value), 4);
+			} else if (value instanceof Double) {
+				out.write(DOUBLE);
+				writeFixed(Double.doubleToLongBits((Double) value), 8);
+			} else if (value instanceof String) {
+				out.write(STRING);
+				writeString((String) value);
+			} else if (value instanceof byte[]) {
+				byte[] bytes = (byte[]) value;
+				out.write(BYTES);
+				writeUnsigned(bytes.length);
+				out.write(bytes, 0, bytes.length);
+			} else if (value instanceof Enum) {
+				out.write(ENUM);
+				writeName(((Enum<?>) value).getDeclaringClass().getName());
+				writeString(((Enum<?>) value).name());
+			} else if (value.getClass() == Date.class) {
+				out.write(DATE);
+				writeSigned(((Date) value).getTime());
+			} else if (value.getClass() == BigDecimal.class) {
+				out.write(BIG_DECIMAL);
+				writeString(value.toString());
+			} else if (value.getClass().isArray()) {
+				int length = Array.getLength(value);
+				out.write(ARRAY);
+				writeName(value.getClass().getComponentType().getName());
+				writeUnsigned(length);
+				for (int i = 0; i < length; i++) {
+					writeValue(Array.get(value, i));
+				}
+			} else if (COLLECTIONS.contains(value.getClass()) && value instanceof Collection) {
+				Collection<?> collection = (Collection<?>) value;
+				out.write(value instanceof Set ? SET : LIST);
+				writeName(value.getClass().getName());
+				writeUnsigned(collection.size());
+				for (Object item : collection) {
+					writeValue(item);
+				}
+			} else if (COLLECTIONS.contains(value.getClass()) && value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				out.write(MAP);
+				writeName(value.getClass().getName());
+				writeUnsigned(map.size());
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					writeValue(entry.getKey());
+					writeValue(entry.getValue());
+				}
+			} else if (isPlain(value.getClass())) {
+				List<Field> fields = getFields(value.getClass());
+				out.write(OBJECT);
+				writeName(value.getClass().getName());
+				writeUnsigned(fields.size());
+				for (Field field : fields) {
+					writeName(field.getName());
+					try {
+						writeValue(field.get(value));
+					} catch (IllegalAccessException e) {
+						throw ioException(e);
+					}
+				}
+			} else {
+				throw new NotSerializableException(value.getClass().getName());
+			}
+		}
+
+		private void writeJava(Object value) throws IOException {
+			byte[] bytes = javaCodec.encode(value);
+			out.write(JAVA);
+			writeUnsigned(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+
+		private void writeName(String name) throws IOException {
+			Integer index = names.get(name);
+			if (index != null) {
+				writeUnsigned(index + 1);
+			} else {
+				names.put(name, names.size());
+				writeUnsigned(0);
+				writeString(name);
+			}
+		}
+
+		private void writeString(String value) throws IOException {
+			byte[] bytes = value.getBytes(UTF_8);
+			writeUnsigned(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+
+		private void writeSigned(long value) {
+			writeUnsigned((value << 1) ^ (value >> 63));
+		}
+
+		private void writeUnsigned(long value) {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+
+		private void writeFixed(long value, int size) {
+			for (int i = size - 1; i >= 0; i--) {
+				out.write((int) (value >>> (i * 8)));
+			}
+		}
+	}
+
+	private class Reader {
+		private final byte[] bytes;
+		private final List<String> names = new ArrayList<>();
+		private int position = 2;
+
+		private Reader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Object readValue() throws IOException {
+			int tag = bytes[position++];
+			switch (tag) {
+				case NULL:
+					return null;
+				case BOOLEAN:
+					return bytes[position++] != 0;
+				case BYTE:
+					return bytes[position++];
+				case SHORT:
+					return (short) readSigned();
+				case CHAR:
+					return (char) readUnsigned();
+				case INT:
+					return (int) readSigned();
+				case LONG:
+					return readSigned();
+				case FLOAT:
+					return Float.intBitsToFloat((int) readFixed(4));
+				case DOUBLE:
+					return Double.longBitsToDouble(readFixed(8));
+				case STRING:
+					return readString();
+				case BYTES: {
+					int length = (int) readUnsigned();
+					byte[] value = new byte[length];
+					System.arraycopy(bytes, position, value, 0, length);
+					position += length;
+					return value;
+				}
+				case ENUM: {
+					Class type = loadClass(readName());
+					return Enum.valueOf(type, readString());
+				}
+				case DATE:
+					return new Date(readSigned());
+				case BIG_DECIMAL:
+					return new BigDecimal(readString());
+				case ARRAY: {
+					Class<?> component = loadClass(readName());
+					int length = (int) readUnsigned();
+					Object array = Array.newInstance(component, length);
+					for (int i = 0; i < length; i++) {
+						Array.set(array, i, readValue());
+					}
+					return array;
+				}
+				case LIST:
+				case SET: {
+					Object instance = newInstance(loadClass(readName()));
+					Collection<Object> collection = instance instanceof Collection
+							? (Collection<Object>) instance
+							: tag == SET ? new LinkedHashSet<>() : new ArrayList<>();
+					int size = (int) readUnsigned();
+					for (int i = 0; i < size; i++) {
+						collection.add(readValue());
+					}
+					return collection;
+				}
+				case MAP: {
+					Object instance = newInstance(loadClass(readName()));
+					Map<Object, Object> map = instance instanceof Map
+							? (Map<Object, Object>) instance
+							: new LinkedHashMap<>();
+					int size = (int) readUnsigned();
+					for (int i = 0; i < size; i++) {
+						Object key = readValue();
+						map.put(key, readValue());
+					}
+					return map;
+				}
+				case OBJECT: {
+					Class<?> type = loadClass(readName());
+					Object object = newInstance(type);
+					if (object == null) {
+						throw new StreamCorruptedException("Can't instantiate " + type.getName());
+					}
+					int count = (int) readUnsigned();
+					for (int i = 0; i < count; i++) {
+						Field field = findField(type, readName());
+						Object value = readValue();
+						if (field != null) {
+							try {
+								field.set(object, value);
+							} catch (IllegalArgumentException | IllegalAccessException e) {
+								throw new InvalidClassException(type.getName(),
+										"Can't restore field " + field.getName() + ": " + e);
+							}
+						}
+					}
+					return object;
+				}
+				case JAVA: {
+					int length = (int) readUnsigned();
+					byte[] value = new byte[length];
+					System.arraycopy(bytes, position, value, 0, length);
+					position += length;
+					return javaCodec.decode(value);
+				}
+				default:
+					throw new StreamCorruptedException("Unknown tag " + tag);
+			}
+		}
+
+		private Class<?> loadClass(String name) throws IOException {
+			Class<?> type = PRIMITIVES.get(name);
+			if (type != null) {
+				return type;
+			}
+			try {
+				return Class.forName(name);
+			} catch (ClassNotFoundException e) {
+				throw ioException(e);
+			}
+		}
+
+		private String readName() throws IOException {
+			int index = (int) readUnsigned();
+			if (index > 0) {
+				return names.get(index - 1);
+			}
+			String name = readString();
+			names.add(name);
+			return name;
+		}
+
+		private String readString() throws IOException {
+			int length = (int) readUnsigned();
+			if (position + length > bytes.length) {
+				throw new IndexOutOfBoundsException();
+			}
+			String value = new String(bytes, position, length, UTF_8);
+			position += length;
+			return value;
+		}
+
+		private long readSigned() {
+			long value = readUnsigned();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private long readUnsigned() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[position++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		private long readFixed(int size) {
+			long value = 0;
+			for (int i = 0; i < size; i++) {
+				value = (value << 8) | (bytes[position++] & 0xFF);
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.codec;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.github.andreyrage.leftdb.utils.SerializeUtils;
+
+import java.io.IOException;
+
+/**
+ * Java serialization with ObjectOutputStream, the format of blobs written
+ * by previous versions of the library
+ * */
+public class JavaBlobCodec implements BlobCodec {
+
+	@NonNull
+	@Override
+	public byte[] encode(@NonNull Object object) throws IOException {
+		return SerializeUtils.serialize(object);
+	}
+
+	@Nullable
+	@Override
+	public Object decode(@NonNull byte[] bytes) throws IOException {
+		try {
+			return SerializeUtils.deserialize(bytes);
+		} catch (ClassNotFoundException e) {
+			IOException exception = new IOException(e.toString());
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return true if bytes start with the stream header of Java serialization (AC ED)
+	 * */
+	public static boolean isJavaSerialized(@NonNull byte[] bytes) {
+		return bytes.length >= 2 && (bytes[0] & 0xFF) == 0xAC && (bytes[1] & 0xFF) == 0xED;
+	}
+}
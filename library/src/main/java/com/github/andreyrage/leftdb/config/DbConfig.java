@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.config;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Connection settings applied by {@link com.github.andreyrage.leftdb.LeftDBHandler}
+ * with PRAGMA statements every time the database is opened.
+ * Settings that are null are not changed.
+ *
+ * Synchronous mode, cache size, mmap size and temp store are per connection, they are
+ * applied to the primary connection only, that runs all writes. With write-ahead logging
+ * on API 16+ the framework runs reads on a pool of other connections with SQLite defaults.
+ * */
+public class DbConfig {
+	public static final String JOURNAL_DELETE = "DELETE";
+	public static final String JOURNAL_TRUNCATE = "TRUNCATE";
+	public static final String JOURNAL_PERSIST = "PERSIST";
+	public static final String JOURNAL_MEMORY = "MEMORY";
+	public static final String JOURNAL_WAL = "WAL";
+
+	public static final String SYNCHRONOUS_OFF = "OFF";
+	public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+	public static final String SYNCHRONOUS_FULL = "FULL";
+
+	public static final String TEMP_STORE_DEFAULT = "DEFAULT";
+	public static final String TEMP_STORE_FILE = "FILE";
+	public static final String TEMP_STORE_MEMORY = "MEMORY";
+
+	public static final String AUTO_VACUUM_NONE = "NONE";
+	public static final String AUTO_VACUUM_FULL = "FULL";
+	public static final String AUTO_VACUUM_INCREMENTAL = "INCREMENTAL";
+
+	@Nullable private Integer pageSize;
+	@Nullable private String autoVacuum;
+	@Nullable private Long mmapSize;
+	@Nullable private Integer cacheSize;
+	@Nullable private String journalMode;
+	@Nullable private String synchronous;
+	@Nullable private String tempStore;
+
+	private DbConfig(@Nullable Integer pageSize, @Nullable String autoVacuum, @Nullable Long mmapSize,
+					 @Nullable Integer cacheSize, @Nullable String journalMode, @Nullable String synchronous,
+					 @Nullable String tempStore) {
+		this.pageSize = pageSize;
+		this.autoVacuum = autoVacuum;
+		this.mmapSize = mmapSize;
+		this.cacheSize = cacheSize;
+		this.journalMode = journalMode;
+		this.synchronous = synchronous;
+		this.tempStore = tempStore;
+	}
+
+	/**
+	 * Page size in bytes, it is set when the database is created or copied from assets
+	 * */
+	@Nullable
+	public Integer pageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Auto vacuum mode, it is set when the database is created or copied from assets.
+	 * {@link #AUTO_VACUUM_INCREMENTAL} lets {@link com.github.andreyrage.leftdb.MaintenanceScheduler}
+	 * reclaim free pages.
+	 * */
+	@Nullable
+	public String autoVacuum() {
+		return autoVacuum;
+	}
+
+	/**
+	 * Size of memory-mapped I/O in bytes, 0 disables it; primary connection only
+	 * */
+	@Nullable
+	public Long mmapSize() {
+		return mmapSize;
+	}
+
+	/**
+	 * Cache size in pages, or in KiB if negative; primary connection only
+	 * */
+	@Nullable
+	public Integer cacheSize() {
+		return cacheSize;
+	}
+
+	@Nullable
+	public String journalMode() {
+		return journalMode;
+	}
+
+	@Nullable
+	public String synchronous() {
+		return synchronous;
+	}
+
+	@Nullable
+	public String tempStore() {
+		return tempStore;
+	}
+
+	/**
+	 * Many readers: write-ahead log, so readers don't wait for writers, and a large cache.
+	 * Memory-mapped I/O is not enabled, pooled reader connections wouldn't use it.
+	 * */
+	@NonNull
+	public static DbConfig readHeavy() {
+		return builder()
+				.journalMode(JOURNAL_WAL)
+				.synchronous(SYNCHRONOUS_NORMAL)
+				.cacheSize(-8 * 1024)
+				.tempStore(TEMP_STORE_MEMORY)
+				.build();
+	}
+
+	/**
+	 * Frequent transactions: write-ahead log without sync on every commit
+	 * */
+	@NonNull
+	public static DbConfig writeHeavy() {
+		return builder()
+				.pageSize(4096)
+				.autoVacuum(AUTO_VACUUM_INCREMENTAL)
+				.journalMode(JOURNAL_WAL)
+				.synchronous(SYNCHRONOUS_NORMAL)
+				.cacheSize(-4 * 1024)
+				.tempStore(TEMP_STORE_MEMORY)
+				.build();
+	}
+
+	/**
+	 * Small cache, no memory-mapped I/O and temp tables on disk
+	 * */
+	@NonNull
+	public static DbConfig lowMemory() {
+		return builder()
+				.mmapSize(0L)
+				.cacheSize(-512)
+				.tempStore(TEMP_STORE_FILE)
+				.build();
+	}
+
+	@NonNull
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+		private Integer pageSize;
+		private String autoVacuum;
+		private Long mmapSize;
+		private Integer cacheSize;
+		private String journalMode;
+		private String synchronous;
+		private String tempStore;
+
+		public Builder pageSize(@Nullable Integer pageSize) {
+			this.pageSize = pageSize;
+			return this;
+		}
+
+		public Builder autoVacuum(@Nullable String autoVacuum) {
+			this.autoVacuum = autoVacuum;
+			return this;
+		}
+
+		public Builder mmapSize(@Nullable Long mmapSize) {
+			this.mmapSize = mmapSize;
+			return this;
+		}
+
+		public Builder cacheSize(@Nullable Integer cacheSize) {
+			this.cacheSize = cacheSize;
+			return this;
+		}
+
+		public Builder journalMode(@Nullable String journalMode) {
+			this.journalMode = journalMode;
+			return this;
+		}
+
+		public Builder synchronous(@Nullable String synchronous) {
+			this.synchronous = synchronous;
+			return this;
+		}
+
+		public Builder tempStore(@Nullable String tempStore) {
+			this.tempStore = tempStore;
+			return this;
+		}
+
+		public DbConfig build() {
+			if (pageSize != null && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1)) {
+				throw new IllegalArgumentException("Page size must be a power of two between 512 and 65536");
+			}
+			if (mmapSize != null && mmapSize < 0) {
+				throw new IllegalArgumentException("Mmap size can not be negative");
+			}
+
+			return new DbConfig(
+					pageSize,
+					autoVacuum,
+					mmapSize,
+					cacheSize,
+					journalMode,
+					synchronous,
+					tempStore
+			);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.queries;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.github.andreyrage.leftdb.annotation.TableName;
+
+import static com.github.andreyrage.leftdb.utils.CheckNullUtils.checkNotNull;
+
+/**
+ * Full-text search in columns annotated with
+ * {@link com.github.andreyrage.leftdb.annotation.FullTextSearch}.
+ * Results are ordered by rank, the best match is first.
+ * */
+public final class SearchQuery {
+
+	@NonNull private final Class<?> entity;
+	@NonNull private final String match;
+	private final int limit;
+	private final int offset;
+
+	private SearchQuery(@NonNull Class<?> entity, @NonNull String match, int limit, int offset) {
+		this.entity = entity;
+		this.match = match;
+		this.limit = limit;
+		this.offset = offset;
+	}
+
+	@NonNull
+	public String table() {
+		if (entity.isAnnotationPresent(TableName.class)
+				&& !TextUtils.isEmpty(entity.getAnnotation(TableName.class).value())) {
+			return entity.getAnnotation(TableName.class).value();
+		}
+		return entity.getSimpleName();
+	}
+
+	@NonNull
+	public Class<?> entity() {
+		return entity;
+	}
+
+	/**
+	 * Expression for MATCH operator
+	 * */
+	@NonNull
+	public String match() {
+		return match;
+	}
+
+	/**
+	 * Max number of results, 0 if not limited
+	 * */
+	public int limit() {
+		return limit;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		SearchQuery that = (SearchQuery) o;
+
+		return entity.equals(that.entity)
+				&& match.equals(that.match)
+				&& limit == that.limit
+				&& offset == that.offset;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = entity.hashCode();
+		result = 31 * result + match.hashCode();
+		result = 31 * result + limit;
+		result = 31 * result + offset;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchQuery{" +
+				"entity='" + entity.getSimpleName() + '\'' +
+				", match='" + match + '\'' +
+				", limit=" + limit +
+				", offset=" + offset +
+				'}';
+	}
+
+	@NonNull
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+
+		private Class<?> entity;
+
+		private String match;
+
+		private int limit;
+
+		private int offset;
+
+		Builder() {
+		}
+
+		@NonNull
+		public Builder entity(@NonNull Class<?> entity) {
+			this.entity = entity;
+			return this;
+		}
+
+		/**
+		 * Full-text query expression, e.g. {@code "red* AND car"}
+		 * */
+		@NonNull
+		public Builder match(@Nullable String match) {
+			this.match = match;
+			return this;
+		}
+
+		/**
+		 * Search rows that contain words starting with all words of the text,
+		 * e.g. user input in a search field
+		 * */
+		@NonNull
+		public Builder text(@Nullable String text) {
+			StringBuilder match = new StringBuilder();
+			if (text != null) {
+				for (String word : text.replace("\"", " ").replace("*", " ").trim().split("\\s+")) {
+					if (word.length() > 0) {
+						match.append(match.length() > 0 ? " " : "")
+								.append('"').append(word).append("*\"");
+					}
+				}
+			}
+			this.match = match.toString();
+			return this;
+		}
+
+		@NonNull
+		public Builder limit(int limit) {
+			this.limit = limit;
+			return this;
+		}
+
+		@NonNull
+		public Builder offset(int offset) {
+			this.offset = offset;
+			return this;
+		}
+
+		@NonNull
+		public SearchQuery build() {
+			checkNotNull(entity, "Table name is null or empty");
+
+			if (TextUtils.isEmpty(match)) {
+				throw new IllegalStateException("Match expression is null or empty");
+			}
+			if (limit < 0 || offset < 0) {
+				throw new IllegalStateException("Limit and offset can not be negative");
+			}
+
+			return new SearchQuery(entity, match, limit, offset);
+		}
+
+	}
+
+}
@@ -18,13 +18,18 @@ package com.github.andreyrage.leftdb.queries;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
+import com.github.andreyrage.leftdb.LeftDBUtils;
+import com.github.andreyrage.leftdb.PreparedSelect;
 import com.github.andreyrage.leftdb.annotation.TableName;
 
+import java.util.Collections;
 import java.util.List;
 
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.checkNotNull;
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.nonNullString;
+import static com.github.andreyrage.leftdb.utils.CheckNullUtils.unmodifiableListOfArgs;
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.unmodifiableListOfStrings;
 
 /**
@@ -38,6 +43,7 @@ public final class SelectQuery {
 	private final @NonNull List<String> columns;
 	private final @NonNull String where;
 	private final @NonNull List<String> whereArgs;
+	private final @NonNull List<Object> typedWhereArgs;
 	private final @NonNull String groupBy;
 	private final @NonNull String having;
 	private final @NonNull String orderBy;
@@ -53,6 +59,24 @@ public final class SelectQuery {
 		this.columns = columns;
 		this.where = where;
 		this.whereArgs = whereArgs;
+		this.typedWhereArgs = Collections.<Object>unmodifiableList(whereArgs);
+		this.groupBy = groupBy;
+		this.having = having;
+		this.orderBy = orderBy;
+		this.limit = limit;
+	}
+
+	private SelectQuery(@NonNull Class<?> entity, boolean distinct,
+						@NonNull List<String> columns, @NonNull String where,
+						@NonNull String groupBy, @NonNull String having,
+						@NonNull String orderBy, @NonNull String limit,
+						@NonNull List<Object> typedWhereArgs) {
+		this.distinct = distinct;
+		this.entity = entity;
+		this.columns = columns;
+		this.where = where;
+		this.whereArgs = unmodifiableListOfStrings(typedWhereArgs);
+		this.typedWhereArgs = typedWhereArgs;
 		this.groupBy = groupBy;
 		this.having = having;
 		this.orderBy = orderBy;
@@ -65,7 +89,8 @@ public final class SelectQuery {
 
 	@NonNull
 	public String table() {
-		if (entity.isAnnotationPresent(TableName.class)) {
+		if (entity.isAnnotationPresent(TableName.class)
+				&& !TextUtils.isEmpty(entity.getAnnotation(TableName.class).value())) {
 			return entity.getAnnotation(TableName.class).value();
 		}
 		return entity.getSimpleName();
@@ -91,6 +116,14 @@ public final class SelectQuery {
 		return whereArgs;
 	}
 
+	/**
+	 * Arguments that are bound with their types: Long, Double, String, byte[] or null
+	 * */
+	@NonNull
+	public List<Object> typedWhereArgs() {
+		return typedWhereArgs;
+	}
+
 	@NonNull
 	public String groupBy() {
 		return groupBy;
@@ -111,6 +144,18 @@ public final class SelectQuery {
 		return limit;
 	}
 
+	/**
+	 * Build the query once to execute it many times with different arguments
+	 *
+	 * @param dbUtils {@link LeftDBUtils} of the database
+	 *
+	 * @return {@link PreparedSelect}
+	 * */
+	@NonNull
+	public <T> PreparedSelect<T> prepare(@NonNull LeftDBUtils dbUtils) {
+		return dbUtils.prepare(this);
+	}
+
 	@NonNull
 	public static Builder builder() {
 		return new Builder();
@@ -127,7 +172,7 @@ public final class SelectQuery {
 				&& entity.equals(query.entity)
 				&& columns.equals(query.columns)
 				&& where.equals(query.where)
-				&& whereArgs.equals(query.whereArgs)
+				&& typedWhereArgs.equals(query.typedWhereArgs)
 				&& groupBy.equals(query.groupBy)
 				&& having.equals(query.having)
 				&& orderBy.equals(query.orderBy)
@@ -141,7 +186,7 @@ public final class SelectQuery {
 		result = 31 * result + (entity.hashCode());
 		result = 31 * result + (columns.hashCode());
 		result = 31 * result + (where.hashCode());
-		result = 31 * result + (whereArgs.hashCode());
+		result = 31 * result + (typedWhereArgs.hashCode());
 		result = 31 * result + (groupBy.hashCode());
 		result = 31 * result + (having.hashCode());
 		result = 31 * result + (orderBy.hashCode());
@@ -269,11 +314,11 @@ public final class SelectQuery {
 					distinct,
 					unmodifiableListOfStrings(columns),
 					nonNullString(where),
-					unmodifiableListOfStrings(whereArgs),
 					nonNullString(groupBy),
 					nonNullString(having),
 					nonNullString(orderBy),
-					limit == null ? nonNullString(limit) : limit
+					limit == null ? nonNullString(limit) : limit,
+					unmodifiableListOfArgs(whereArgs)
 			);
 
 		}
@@ -18,6 +18,7 @@ package com.github.andreyrage.leftdb.queries;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import com.github.andreyrage.leftdb.annotation.TableName;
 
@@ -25,6 +26,7 @@ import java.util.List;
 
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.checkNotNull;
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.nonNullString;
+import static com.github.andreyrage.leftdb.utils.CheckNullUtils.unmodifiableListOfArgs;
 import static com.github.andreyrage.leftdb.utils.CheckNullUtils.unmodifiableListOfStrings;
 
 public final class UpdateQuery {
@@ -32,17 +34,20 @@ public final class UpdateQuery {
 	@NonNull private final Class<?> entity;
 	@NonNull private final String where;
 	@NonNull private final List<String> whereArgs;
+	@NonNull private final List<Object> typedWhereArgs;
 
 	private UpdateQuery(@NonNull Class<?> entity, @NonNull String where,
-						@NonNull List<String> whereArgs) {
+						@NonNull List<Object> typedWhereArgs) {
 		this.entity = entity;
 		this.where = where;
-		this.whereArgs = whereArgs;
+		this.whereArgs = unmodifiableListOfStrings(typedWhereArgs);
+		this.typedWhereArgs = typedWhereArgs;
 	}
 
 	@NonNull
 	public String table() {
-		if (entity.isAnnotationPresent(TableName.class)) {
+		if (entity.isAnnotationPresent(TableName.class)
+				&& !TextUtils.isEmpty(entity.getAnnotation(TableName.class).value())) {
 			return entity.getAnnotation(TableName.class).value();
 		}
 		return entity.getSimpleName();
@@ -63,6 +68,14 @@ public final class UpdateQuery {
 		return whereArgs;
 	}
 
+	/**
+	 * Arguments that are bound with their types: Long, Double, String, byte[] or null
+	 * */
+	@NonNull
+	public List<Object> typedWhereArgs() {
+		return typedWhereArgs;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -72,14 +85,14 @@ public final class UpdateQuery {
 
 		return entity.equals(that.entity)
 				&& where.equals(that.where)
-				&& whereArgs.equals(that.whereArgs);
+				&& typedWhereArgs.equals(that.typedWhereArgs);
 	}
 
 	@Override
 	public int hashCode() {
 		int result = entity.hashCode();
 		result = 31 * result + where.hashCode();
-		result = 31 * result + whereArgs.hashCode();
+		result = 31 * result + typedWhereArgs.hashCode();
 		return result;
 	}
 
@@ -143,7 +156,7 @@ public final class UpdateQuery {
 			return new UpdateQuery(
 					entity,
 					nonNullString(where),
-					unmodifiableListOfStrings(whereArgs)
+					unmodifiableListOfArgs(whereArgs)
 			);
 		}
 
@@ -49,6 +49,39 @@ public class CheckNullUtils {
 		}
 	}
 
+	/**
+	 * Arguments for native binding: integral numbers and booleans become Long,
+	 * floating point numbers become Double, byte[] and null are kept as is,
+	 * other values are converted to String
+	 * */
+	@NonNull
+	public static List<Object> unmodifiableListOfArgs(@Nullable Object... args) {
+		if (args == null || args.length == 0) {
+			return Collections.emptyList();
+		} else {
+			final List<Object> list = new ArrayList<>(args.length);
+			for (Object arg : args) {
+				if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+					list.add(((Number) arg).longValue());
+				} else if (arg instanceof Double || arg instanceof Float) {
+					list.add(((Number) arg).doubleValue());
+				} else if (arg instanceof Boolean) {
+					list.add((Boolean) arg ? 1L : 0L);
+				} else if (arg == null || arg instanceof byte[]) {
+					list.add(arg);
+				} else {
+					list.add(arg.toString());
+				}
+			}
+			return Collections.unmodifiableList(list);
+		}
+	}
+
+	@NonNull
+	public static List<String> unmodifiableListOfStrings(@NonNull List<Object> args) {
+		return unmodifiableListOfStrings(args.toArray());
+	}
+
 	@Nullable
 	public static String nullableString(@Nullable String str) {
 		return TextUtils.isEmpty(str) ? null : str;
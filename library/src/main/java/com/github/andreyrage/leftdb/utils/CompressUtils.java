@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.utils;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip helpers for compressed column values.
+ *
+ * Compressed values start with {@link #MARKER} followed by gzip data, so they are
+ * told apart from values of any codec without sniffing the gzip header.
+ */
+public class CompressUtils {
+
+	/**
+	 * Prefix of compressed values, blob codecs of the library never write a zero first byte
+	 * */
+	public static final byte[] MARKER = {0x00, 'L', 'D', 'Z'};
+
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Limit of the output buffer preallocated from the gzip trailer,
+	 * the trailer is not trusted for larger values
+	 * */
+	private static final int MAX_PREALLOCATED_SIZE = 1024 * 1024;
+
+	public static byte[] compress(@NonNull byte[] bytes) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(bytes.length / 4 + 32);
+		byteArrayOutputStream.write(MARKER);
+		GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
+		gzipOutputStream.write(bytes);
+		gzipOutputStream.close();
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	public static byte[] decompress(@NonNull byte[] bytes) throws IOException {
+		InputStream gzipInputStream = newInputStream(bytes);
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(getUncompressedSize(bytes));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = gzipInputStream.read(buffer)) != -1) {
+			byteArrayOutputStream.write(buffer, 0, read);
+		}
+		gzipInputStream.close();
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	/**
+	 * @return stream of decompressed bytes
+	 *
+	 * @throws IOException if bytes are not compressed by {@link #compress(byte[])}
+	 * */
+	@NonNull
+	public static InputStream newInputStream(@NonNull byte[] bytes) throws IOException {
+		if (!isCompressed(bytes)) {
+			throw new IOException("Value is not compressed");
+		}
+		return new GZIPInputStream(new ByteArrayInputStream(bytes, MARKER.length, bytes.length - MARKER.length),
+				BUFFER_SIZE);
+	}
+
+	/**
+	 * @return true if bytes start with {@link #MARKER}
+	 * */
+	public static boolean isCompressed(@NonNull byte[] bytes) {
+		if (bytes.length < MARKER.length) {
+			return false;
+		}
+		for (int i = 0; i < MARKER.length; i++) {
+			if (bytes[i] != MARKER[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return uncompressed size from the gzip trailer (ISIZE, little-endian),
+	 * or the default buffer size if it is not plausible
+	 * */
+	private static int getUncompressedSize(@NonNull byte[] bytes) {
+		int length = bytes.length;
+		if (length < MARKER.length + 4) {
+			return BUFFER_SIZE;
+		}
+		int size = (bytes[length - 4] & 0xFF) | (bytes[length - 3] & 0xFF) << 8
+				| (bytes[length - 2] & 0xFF) << 16 | (bytes[length - 1] & 0xFF) << 24;
+		return size > 0 && size <= MAX_PREALLOCATED_SIZE ? size : BUFFER_SIZE;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Registry of in-flight calls. Concurrent calls with equal keys are executed
+ * once: the first caller runs the call and the others wait for it and
+ * receive the same result (or the same exception).
+ */
+public class SingleFlight<K, V> {
+
+	private final Map<K, Flight<V>> flights = new HashMap<>();
+
+	public V execute(@NonNull K key, @NonNull Call<V> call) {
+		Flight<V> flight;
+		boolean isLeader = false;
+		synchronized (flights) {
+			flight = flights.get(key);
+			if (flight == null) {
+				flight = new Flight<>();
+				flights.put(key, flight);
+				isLeader = true;
+			}
+		}
+		if (!isLeader) {
+			return flight.await();
+		}
+		try {
+			flight.result = call.call();
+			return flight.result;
+		} catch (RuntimeException | Error e) {
+			flight.error = e;
+			throw e;
+		} finally {
+			synchronized (flights) {
+				if (flights.get(key) == flight) {
+					flights.remove(key);
+				}
+			}
+			flight.latch.countDown();
+		}
+	}
+
+	/**
+	 * Calls that start after this will not join the calls that are already running
+	 * */
+	public void forgetAll() {
+		synchronized (flights) {
+			flights.clear();
+		}
+	}
+
+	public interface Call<V> {
+		V call();
+	}
+
+	private static class Flight<V> {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile V result;
+		private volatile Throwable error;
+
+		private V await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					latch.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			} else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Andrii Horishnii
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.andreyrage.leftdb.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map with weak keys that are compared by identity, so state can be attached
+ * to entities without relying on their equals and hashCode
+ */
+public class WeakIdentityMap<K, V> {
+
+	private final Map<IdentityWeakReference<K>, V> map = new HashMap<>();
+	private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+	@Nullable
+	public synchronized V get(@NonNull K key) {
+		expunge();
+		return map.get(new IdentityWeakReference<>(key, null));
+	}
+
+	@Nullable
+	public synchronized V put(@NonNull K key, @NonNull V value) {
+		expunge();
+		return map.put(new IdentityWeakReference<>(key, queue), value);
+	}
+
+	@Nullable
+	public synchronized V remove(@NonNull K key) {
+		expunge();
+		return map.remove(new IdentityWeakReference<>(key, null));
+	}
+
+	public synchronized int size() {
+		expunge();
+		return map.size();
+	}
+
+	private void expunge() {
+		Reference<? extends K> reference;
+		while ((reference = queue.poll()) != null) {
+			map.remove(reference);
+		}
+	}
+
+	private static class IdentityWeakReference<T> extends WeakReference<T> {
+		private final int hash;
+
+		private IdentityWeakReference(T referent, ReferenceQueue<? super T> queue) {
+			super(referent, queue);
+			hash = System.identityHashCode(referent);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof IdentityWeakReference)) return false;
+			Object referent = get();
+			return referent != null && referent == ((IdentityWeakReference<?>) o).get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}